@@ -0,0 +1,276 @@
+"""Concurrent-connection capacity of the service under slow downloads.
+
+Holds an increasing number of downloads open, each reading a few KB per second,
+and measures GET /list meanwhile. With platform threads every slow download keeps
+a Tomcat worker busy, so once they outnumber server.tomcat.threads.max (200 by
+default) other requests wait in the accept queue. The capacity is the largest
+number of slow downloads at which every probe still answered within the threshold.
+
+Only the standard library is used, so it runs in a stock python image:
+see the capacity profile in docker-compose.yml and load/compare-threads.sh.
+"""
+
+import argparse
+import asyncio
+import csv
+import json
+import os
+import socket
+import statistics
+import sys
+import time
+import urllib.parse
+import urllib.request
+import uuid
+
+
+def parse_args():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument("--url", default="http://localhost:8081")
+    parser.add_argument("--login", default="user")
+    parser.add_argument("--password", default="passphrase")
+    parser.add_argument("--label", default="run", help="mode name written to the results")
+    parser.add_argument("--steps", default="50,100,200,400,800,1600", help="numbers of slow downloads")
+    parser.add_argument("--rate", type=int, default=4096, help="bytes per second read by a slow download")
+    parser.add_argument("--file-mb", type=int, default=16, help="size of the downloaded file")
+    parser.add_argument("--probes", type=int, default=20, help="GET /list requests per step")
+    parser.add_argument("--threshold", type=float, default=1.0, help="seconds a probe may take")
+    parser.add_argument("--timeout", type=float, default=30.0, help="seconds before a probe is given up")
+    parser.add_argument("--settle", type=float, default=5.0, help="seconds between opening downloads and probing")
+    parser.add_argument("--out", help="CSV file the results are appended to")
+    return parser.parse_args()
+
+
+def login(base_url, user, password, wait_seconds=180):
+    body = json.dumps({"login": user, "password": password}).encode()
+    deadline = time.monotonic() + wait_seconds
+
+    # The service may still be starting.
+    while True:
+        request = urllib.request.Request(base_url + "/login", body, {"Content-Type": "application/json"})
+
+        try:
+            with urllib.request.urlopen(request, timeout=10) as response:
+                return json.load(response)["auth-token"]
+        except OSError:
+            if time.monotonic() > deadline:
+                raise
+
+            time.sleep(2)
+
+
+def upload(base_url, token, file_name, size):
+    boundary = uuid.uuid4().hex
+    head = (
+        f"--{boundary}\r\n"
+        f'Content-Disposition: form-data; name="file"; filename="{file_name}"\r\n'
+        "Content-Type: application/octet-stream\r\n\r\n"
+    ).encode()
+    tail = f"\r\n--{boundary}--\r\n".encode()
+
+    # Random content: neither compressed nor deduplicated into something small.
+    body = head + os.urandom(size) + tail
+
+    request = urllib.request.Request(
+        base_url + "/file?" + urllib.parse.urlencode({"filename": file_name}),
+        body,
+        {"auth-token": token, "Content-Type": f"multipart/form-data; boundary={boundary}"},
+    )
+
+    with urllib.request.urlopen(request, timeout=120):
+        pass
+
+
+def delete(base_url, token, file_name):
+    request = urllib.request.Request(
+        base_url + "/file?" + urllib.parse.urlencode({"filename": file_name}),
+        headers={"auth-token": token},
+        method="DELETE",
+    )
+
+    try:
+        with urllib.request.urlopen(request, timeout=30):
+            pass
+    except OSError:
+        pass
+
+
+class Target:
+    def __init__(self, base_url, token):
+        url = urllib.parse.urlsplit(base_url)
+
+        self.host = url.hostname
+        self.port = url.port or 80
+        self.token = token
+
+    def request(self, path):
+        return (
+            f"GET {path} HTTP/1.1\r\n"
+            f"Host: {self.host}:{self.port}\r\n"
+            f"auth-token: {self.token}\r\n"
+            "Connection: close\r\n\r\n"
+        ).encode()
+
+    async def connect(self, receive_buffer=None):
+        sock = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
+        sock.setblocking(False)
+
+        # A small receive buffer makes the server block on writing almost at once,
+        # instead of after the kernel buffers several megabytes.
+        if receive_buffer:
+            sock.setsockopt(socket.SOL_SOCKET, socket.SO_RCVBUF, receive_buffer)
+
+        address = (await asyncio.get_running_loop().getaddrinfo(self.host, self.port, family=socket.AF_INET))[0][4]
+
+        await asyncio.get_running_loop().sock_connect(sock, address)
+
+        return await asyncio.open_connection(sock=sock, limit=receive_buffer or 2 ** 16)
+
+
+async def slow_download(target, path, rate, started, stop):
+    writer = None
+
+    try:
+        reader, writer = await target.connect(receive_buffer=rate)
+
+        writer.write(target.request(path))
+        await writer.drain()
+
+        status = await reader.readline()
+
+        if not status.startswith(b"HTTP/1.1 200"):
+            return
+
+        started.append(1)
+
+        while not stop.is_set():
+            if not await reader.read(rate):
+                break
+
+            await asyncio.sleep(1)
+    except OSError:
+        pass
+    finally:
+        if writer is not None:
+            writer.close()
+
+
+async def probe(target, path, timeout):
+    start = time.monotonic()
+
+    try:
+        async with asyncio.timeout(timeout):
+            reader, writer = await target.connect()
+
+            try:
+                writer.write(target.request(path))
+                await writer.drain()
+
+                status = await reader.readline()
+
+                await reader.read()
+            finally:
+                writer.close()
+    except (OSError, TimeoutError):
+        return None
+
+    if not status.startswith(b"HTTP/1.1 200"):
+        return None
+
+    return time.monotonic() - start
+
+
+async def run_step(target, args, clients, download_path):
+    stop = asyncio.Event()
+    started = []
+    downloads = []
+
+    # Opened in small batches, a burst of connections would overflow the accept queue by itself.
+    for opened in range(0, clients, 50):
+        for _ in range(min(50, clients - opened)):
+            downloads.append(asyncio.create_task(slow_download(target, download_path, args.rate, started, stop)))
+
+        await asyncio.sleep(0.2)
+
+    await asyncio.sleep(args.settle)
+
+    latencies = []
+
+    for _ in range(args.probes):
+        latencies.append(await probe(target, "/list?limit=10", args.timeout))
+
+    stop.set()
+
+    for download in downloads:
+        download.cancel()
+
+    await asyncio.gather(*downloads, return_exceptions=True)
+
+    # Lets the server notice the closed connections before the next step.
+    await asyncio.sleep(args.settle)
+
+    answered = [latency for latency in latencies if latency is not None]
+
+    return {
+        "label": args.label,
+        "slow_clients": clients,
+        "slow_clients_started": len(started),
+        "probes": len(latencies),
+        "probes_answered": len(answered),
+        "median_s": round(statistics.median(answered), 3) if answered else "",
+        "max_s": round(max(answered), 3) if answered else "",
+    }
+
+
+def within_threshold(result, threshold):
+    return result["probes_answered"] == result["probes"] and result["max_s"] != "" and result["max_s"] <= threshold
+
+
+async def main():
+    args = parse_args()
+
+    token = login(args.url, args.login, args.password)
+    file_name = f"capacity-{uuid.uuid4().hex[:8]}.bin"
+
+    upload(args.url, token, file_name, args.file_mb * 1024 * 1024)
+
+    target = Target(args.url, token)
+    download_path = "/file?" + urllib.parse.urlencode({"filename": file_name})
+
+    results = []
+    capacity = 0
+
+    try:
+        for clients in (int(step) for step in args.steps.split(",")):
+            result = await run_step(target, args, clients, download_path)
+
+            results.append(result)
+
+            print(
+                f"{args.label}: {clients} slow downloads ({result['slow_clients_started']} started), "
+                f"/list answered {result['probes_answered']}/{result['probes']}, "
+                f"median {result['median_s']}s, max {result['max_s']}s",
+                flush=True,
+            )
+
+            if within_threshold(result, args.threshold):
+                capacity = clients
+    finally:
+        delete(args.url, token, file_name)
+
+    print(f"{args.label}: capacity {capacity} slow downloads with /list under {args.threshold}s")
+
+    if args.out:
+        new_file = not os.path.exists(args.out)
+
+        with open(args.out, "a", newline="") as out:
+            writer = csv.DictWriter(out, fieldnames=list(results[0].keys()))
+
+            if new_file:
+                writer.writeheader()
+
+            writer.writerows(results)
+
+
+if __name__ == "__main__":
+    sys.exit(asyncio.run(main()))
@@ -0,0 +1,26 @@
+#!/bin/bash
+# Runs load/capacity.py against the service with platform threads and then with
+# virtual threads, and appends both to load/results/capacity.csv.
+#
+# The jar has to be built (./gradlew bootJar) and the app image built from it
+# (docker build -t app .). Sendfile is turned off for the run: with it, Tomcat's
+# poller writes the downloads and neither mode keeps a thread per slow client.
+#
+# Usage: load/compare-threads.sh [extra capacity.py arguments]
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+mkdir -p load/results
+
+for virtual in false true; do
+    label=$([ "$virtual" = true ] && echo virtual || echo platform)
+
+    VIRTUAL_THREADS=$virtual FILES_SENDFILE=false docker compose up -d --force-recreate app
+
+    docker compose --profile capacity run --rm capacity \
+        --label "$label" --out /load/results/capacity.csv "$@"
+done
+
+docker compose stop app
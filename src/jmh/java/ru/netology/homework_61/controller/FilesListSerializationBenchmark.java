@@ -0,0 +1,38 @@
+package ru.netology.homework_61.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JSON body of GET /list.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilesListSerializationBenchmark {
+    @Param({"10", "100", "1000"})
+    private int listSize;
+
+    private ObjectMapper mapper;
+    private List<FilesListResponseElement> list;
+
+    @Setup
+    public void setUp() {
+        mapper = new ObjectMapper();
+        list = new ArrayList<>(listSize);
+
+        for (var i = 0; i < listSize; i++) {
+            list.add(new FilesListResponseElement("file-" + i + ".jpg", 1024L * i));
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return mapper.writeValueAsBytes(list);
+    }
+}
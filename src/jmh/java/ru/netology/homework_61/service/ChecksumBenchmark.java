@@ -0,0 +1,58 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Hashing and copying of upload content without any disk I/O.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"1024", "65536", "1048576", "16777216"})
+    private int payloadSize;
+
+    @Param({"SHA-256", "CRC32C"})
+    private String algorithm;
+
+    private byte[] payload;
+    private byte[] digest;
+    private ChecksumEngine engine;
+
+    @Setup
+    public void setUp() {
+        var env = new StandardEnvironment();
+
+        env.getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of("checksum_algorithm", algorithm)));
+
+        engine = new ChecksumEngine(env, new SimpleMeterRegistry());
+
+        payload = new byte[payloadSize];
+
+        new Random(42).nextBytes(payload);
+
+        digest = Arrays.copyOf(payload, Math.min(32, payloadSize));
+    }
+
+    @Benchmark
+    public String copy() throws IOException {
+        return engine.copy(new ByteArrayInputStream(payload), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public String toHex() {
+        return ChecksumEngine.toHex(digest);
+    }
+}
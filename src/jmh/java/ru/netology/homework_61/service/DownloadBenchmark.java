@@ -0,0 +1,132 @@
+package ru.netology.homework_61.service;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Sending a whole stored file to a socket: through the InputStream of UrlResourceWithSpecifiedFilename,
+// copied the way Spring writes a Resource body, against FileChannel.transferTo, which is sendfile(2)
+// on Linux, as Tomcat does for sendfile downloads. The peer discards the bytes on loopback.
+// Neither Tomcat nor the controller is involved, so this is only a proxy of the two download paths:
+// DownloadConnectorBenchmark measures GET /file through the real connector.
+// Aux counters cpuNanos and bytes are CPU time of the sending thread (kernel time included)
+// and bytes sent per iteration, their ratio is the CPU cost of a byte.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Param({"1048576", "16777216", "134217728"})
+    private int payloadSize;
+
+    private Path filesDir;
+    private Path file;
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private Thread drain;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        filesDir = Files.createTempDirectory("download-benchmark");
+        file = filesDir.resolve("benchmark.bin");
+
+        var chunk = new byte[1024 * 1024];
+
+        new Random(42).nextBytes(chunk);
+
+        try (var out = Files.newOutputStream(file)) {
+            for (long written = 0; written < payloadSize; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, payloadSize - written));
+            }
+        }
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+
+        var peer = server.accept();
+
+        drain = Thread.ofPlatform().daemon().start(() -> {
+            var buffer = ByteBuffer.allocateDirect(1024 * 1024);
+
+            try (peer) {
+                while (peer.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+            } catch (IOException ignored) {
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        drain.join();
+        server.close();
+
+        FileUtils.deleteDirectory(filesDir.toFile());
+    }
+
+    @Benchmark
+    public void urlResource(Cost cost) throws IOException {
+        var cpuBefore = THREADS.getCurrentThreadCpuTime();
+
+        var resource = new UrlResourceWithSpecifiedFilename(file.toUri(), "benchmark.bin");
+
+        try (var content = resource.getInputStream()) {
+            cost.bytes += StreamUtils.copy(content, Channels.newOutputStream(client));
+        }
+
+        cost.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpuBefore;
+    }
+
+    @Benchmark
+    public void transferTo(Cost cost) throws IOException {
+        var cpuBefore = THREADS.getCurrentThreadCpuTime();
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                position += channel.transferTo(position, size - position, client);
+            }
+
+            cost.bytes += size;
+        }
+
+        cost.cpuNanos += THREADS.getCurrentThreadCpuTime() - cpuBefore;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cost {
+        public long cpuNanos;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuNanos = 0;
+            bytes = 0;
+        }
+    }
+}
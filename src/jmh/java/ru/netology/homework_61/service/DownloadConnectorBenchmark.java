@@ -0,0 +1,223 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.netology.homework_61.controller.FileRegionsHttpMessageConverter;
+import ru.netology.homework_61.controller.FilesController;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// GET /file served by embedded Tomcat through FilesController, with files_sendfile off and on:
+// the connector path DownloadBenchmark only approximates. A client in the same JVM keeps one
+// connection alive and discards the body on loopback.
+// Aux counters cpuNanos and bytes are CPU time of the whole process (Tomcat's threads, the client
+// and the JVM's own) and body bytes received per iteration. The client's share is the same in
+// both modes, so the difference of their ratios is what sendfile saves per byte.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadConnectorBenchmark {
+    private static final String FILE_NAME = "benchmark.bin";
+    private static final com.sun.management.OperatingSystemMXBean OS =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    @Param({"1048576", "16777216", "134217728"})
+    private int payloadSize;
+
+    @Param({"false", "true"})
+    private boolean sendfile;
+
+    private Path filesDir;
+    private Tomcat tomcat;
+    private SocketChannel client;
+    private ByteBuffer request;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        filesDir = Files.createTempDirectory("download-connector-benchmark");
+
+        var env = new StandardEnvironment();
+
+        Files.createDirectories(filesDir.resolve("files"));
+
+        env.getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "files_directory", filesDir.resolve("files").toString(),
+                "files_sendfile", String.valueOf(sendfile)
+        )));
+
+        var repository = new InMemoryRepository();
+        var meterRegistry = new SimpleMeterRegistry();
+        var storage = new FilesStorage(repository, env, new ChecksumEngine(env, meterRegistry));
+        var service = new FilesService(repository, storage, new AccessTokenCache(repository, env), new HotFilesCache(env), new TransactionTemplate(new NoOpTransactionManager()), env, meterRegistry);
+
+        var payload = filesDir.resolve("payload.bin");
+        var chunk = new byte[1024 * 1024];
+
+        new Random(42).nextBytes(chunk);
+
+        try (var out = Files.newOutputStream(payload)) {
+            for (long written = 0; written < payloadSize; written += chunk.length) {
+                out.write(chunk, 0, (int) Math.min(chunk.length, payloadSize - written));
+            }
+        }
+
+        try (var content = Files.newInputStream(payload)) {
+            service.uploadFile(InMemoryRepository.TOKEN, FILE_NAME, content);
+        }
+
+        var web = new GenericWebApplicationContext();
+
+        AnnotationConfigUtils.registerAnnotationConfigProcessors(web);
+
+        web.registerBean(MvcConfig.class);
+        web.registerBean(FilesController.class, () -> new FilesController(service, env));
+
+        tomcat = new Tomcat();
+
+        tomcat.setBaseDir(filesDir.resolve("tomcat").toString());
+        tomcat.setPort(0);
+
+        var context = tomcat.addContext("", null);
+
+        Tomcat.addServlet(context, "dispatcher", new DispatcherServlet(web)).setLoadOnStartup(1);
+        context.addServletMappingDecoded("/", "dispatcher");
+
+        tomcat.start();
+
+        client = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), tomcat.getConnector().getLocalPort()));
+
+        request = ByteBuffer.wrap((
+                "GET /file?filename=" + FILE_NAME + " HTTP/1.1\r\n"
+                        + "Host: localhost\r\n"
+                        + "auth-token: " + InMemoryRepository.TOKEN + "\r\n\r\n"
+        ).getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        tomcat.stop();
+        tomcat.destroy();
+
+        FileUtils.deleteDirectory(filesDir.toFile());
+    }
+
+    @Benchmark
+    public void download(Cost cost) throws IOException {
+        var cpuBefore = OS.getProcessCpuTime();
+
+        cost.bytes += get();
+
+        cost.cpuNanos += OS.getProcessCpuTime() - cpuBefore;
+    }
+
+    // Sends the request on the kept-alive connection and reads the whole response, returns the body size.
+    private long get() throws IOException {
+        client.write(request.rewind());
+
+        buffer.clear();
+
+        int headersEnd;
+
+        while ((headersEnd = headersEnd()) < 0) {
+            read();
+        }
+
+        var headers = new String(buffer.array(), 0, headersEnd, StandardCharsets.ISO_8859_1);
+
+        if (!headers.startsWith("HTTP/1.1 200")) {
+            throw new IOException("Unexpected response: " + headers);
+        }
+
+        var contentLength = headers.lines()
+                .filter(line -> line.regionMatches(true, 0, "Content-Length:", 0, 15))
+                .mapToLong(line -> Long.parseLong(line.substring(15).trim()))
+                .findFirst()
+                .orElseThrow(() -> new IOException("No Content-Length: " + headers));
+
+        long received = buffer.position() - headersEnd;
+
+        while (received < contentLength) {
+            buffer.clear();
+
+            received += read();
+        }
+
+        return contentLength;
+    }
+
+    private int read() throws IOException {
+        var read = client.read(buffer);
+
+        if (read < 0) {
+            throw new EOFException();
+        }
+
+        return read;
+    }
+
+    // Offset of the body in the buffer, -1 until the blank line after the headers is read.
+    private int headersEnd() {
+        var bytes = buffer.array();
+
+        for (int i = 3; i < buffer.position(); i++) {
+            if (bytes[i - 3] == '\r' && bytes[i - 2] == '\n' && bytes[i - 1] == '\r' && bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    // The part of the application's WebConfig downloads need.
+    @Configuration
+    @EnableWebMvc
+    public static class MvcConfig implements WebMvcConfigurer {
+        @Override
+        public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+            converters.add(0, new FileRegionsHttpMessageConverter());
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Cost {
+        public long cpuNanos;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuNanos = 0;
+            bytes = 0;
+        }
+    }
+}
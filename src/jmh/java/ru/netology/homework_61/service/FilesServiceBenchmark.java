@@ -0,0 +1,95 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Whole upload and download path against a temporary files_directory.
+// The repository is kept in memory, so the numbers exclude the database.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilesServiceBenchmark {
+    private static final String FILE_NAME = "benchmark.bin";
+
+    @Param({"65536", "1048576", "16777216"})
+    private int payloadSize;
+
+    @Param({"false", "true"})
+    private boolean deduplication;
+
+    private byte[] payload;
+    private Path filesDir;
+    private InMemoryRepository repository;
+    private FilesStorage storage;
+    private FilesService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        payload = new byte[payloadSize];
+
+        new Random(42).nextBytes(payload);
+
+        filesDir = Files.createTempDirectory("files-benchmark");
+
+        var env = new StandardEnvironment();
+
+        env.getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "files_directory", filesDir.toString(),
+                "files_deduplication", String.valueOf(deduplication)
+        )));
+
+        repository = deduplication ? new InMemoryBlobRepository() : new InMemoryRepository();
+
+        var meterRegistry = new SimpleMeterRegistry();
+
+        storage = new FilesStorage(repository, env, new ChecksumEngine(env, meterRegistry));
+
+        service = new FilesService(repository, storage, new AccessTokenCache(repository, env), new HotFilesCache(env), new TransactionTemplate(new NoOpTransactionManager()), env, meterRegistry);
+
+        service.uploadFile(InMemoryRepository.TOKEN, FILE_NAME, new ByteArrayInputStream(payload));
+    }
+
+    // Does FilesReaper's work outside of the measurement.
+    @TearDown(Level.Iteration)
+    public void removeDeletedFiles() throws IOException {
+        for (var localName : repository.drainDeletedFiles()) {
+            storage.remove(localName);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(filesDir.toFile());
+    }
+
+    // Replaces the same file every time, the previous copy is left to the reaper.
+    @Benchmark
+    public void upload() throws Exception {
+        service.uploadFile(InMemoryRepository.TOKEN, FILE_NAME, new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public long download() throws Exception {
+        var resource = service.downloadFile(InMemoryRepository.TOKEN, FILE_NAME);
+
+        try (var content = resource.getInputStream()) {
+            return content.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ru.netology.homework_61.service;
+
+import ru.netology.homework_61.model.FileBlob;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Adds reference counted blobs to the in-memory repository for deduplicated storage.
+class InMemoryBlobRepository extends InMemoryRepository {
+    private final Map<String, FileBlob> blobs = new ConcurrentHashMap<>();
+
+    @Override
+    public FileBlob acquireBlob(String checksum, String localName, long size, String contentEncoding) {
+        var blob = blobs.compute(checksum, (key, existing) -> {
+            var res = existing == null
+                    ? new FileBlob(checksum, localName, size, 1)
+                    : new FileBlob(checksum, existing.getLocalName(), existing.getSize(), existing.getRefCount() + 1);
+
+            res.setContentEncoding(existing == null ? contentEncoding : existing.getContentEncoding());
+
+            return res;
+        });
+
+        var res = new FileBlob(blob.getChecksum(), blob.getLocalName(), blob.getSize(), blob.getRefCount());
+
+        res.setContentEncoding(blob.getContentEncoding());
+
+        return res;
+    }
+
+    @Override
+    public boolean changeBlobReferences(String checksum, long delta) {
+        var removed = new boolean[1];
+
+        blobs.computeIfPresent(checksum, (key, blob) -> {
+            if (blob.getRefCount() + delta > 0) {
+                var res = new FileBlob(checksum, blob.getLocalName(), blob.getSize(), blob.getRefCount() + delta);
+
+                res.setContentEncoding(blob.getContentEncoding());
+
+                return res;
+            }
+
+            addDeletedFile(blob.getLocalName());
+
+            removed[0] = true;
+
+            return null;
+        });
+
+        return removed[0];
+    }
+}
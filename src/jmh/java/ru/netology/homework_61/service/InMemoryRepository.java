@@ -0,0 +1,108 @@
+package ru.netology.homework_61.service;
+
+import org.springframework.core.env.StandardEnvironment;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Repository stub keeping files of a single user in memory, so benchmarks measure disk and CPU only.
+class InMemoryRepository extends CloudServiceRepository {
+    static final String TOKEN = "benchmark-token";
+    static final User USER = new User(1, "user", "hash");
+
+    private final Map<String, FileData> files = new ConcurrentHashMap<>();
+    private final Queue<String> deletedFiles = new ConcurrentLinkedQueue<>();
+
+    InMemoryRepository() {
+        super(null, new StandardEnvironment());
+    }
+
+    @Override
+    public Optional<User> findUserIdByAccessToken(String token) {
+        return TOKEN.equals(token) ? Optional.of(USER) : Optional.empty();
+    }
+
+    @Override
+    public void saveFileData(FileData fileData) {
+        files.put(fileData.getName(), fileData);
+    }
+
+    @Override
+    public boolean deleteFileData(User user, String fileName) {
+        var fileData = files.remove(fileName);
+
+        if (fileData == null) {
+            return false;
+        }
+
+        if (fileData.getBlobChecksum() == null) {
+            addDeletedFile(fileData.getLocalName());
+        } else {
+            releaseBlob(fileData.getBlobChecksum());
+        }
+
+        return true;
+    }
+
+    @Override
+    public void addDeletedFile(String localName) {
+        deletedFiles.add(localName);
+    }
+
+    // Tombstones added since the previous call, FilesReaper would remove their files.
+    List<String> drainDeletedFiles() {
+        var res = new ArrayList<String>();
+
+        String localName;
+
+        while ((localName = deletedFiles.poll()) != null) {
+            res.add(localName);
+        }
+
+        return res;
+    }
+
+    // Benchmarks upload from a single thread, there is nothing to serialize.
+    @Override
+    public void lockFileName(User user, String fileName) {
+    }
+
+    @Override
+    public Optional<FileData> getFileData(User user, String fileName) {
+        return Optional.ofNullable(files.get(fileName));
+    }
+
+    @Override
+    public List<FileData> lockFilesData(User user, Collection<String> fileNames) {
+        return fileNames.stream()
+                .map(files::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    // Benchmarks run without a quota.
+    @Override
+    public long lockUsedBytes(User user) {
+        return 0;
+    }
+
+    @Override
+    public List<FileData> listFilesByUser(User user, String afterName, int limit) {
+        return files.values()
+                .stream()
+                .filter(fileData -> afterName == null || fileData.getName().compareTo(afterName) > 0)
+                .sorted((a, b) -> a.getName().compareTo(b.getName()))
+                .limit(limit)
+                .toList();
+    }
+}
@@ -0,0 +1,43 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalFileNameBenchmark {
+    private FilesStorage storage;
+
+    @Setup
+    public void setUp() {
+        storage = new FilesStorage(
+                new InMemoryRepository(),
+                new StandardEnvironment(),
+                new ChecksumEngine(new StandardEnvironment(), new SimpleMeterRegistry())
+        );
+    }
+
+    @Benchmark
+    public String withoutExtension() {
+        return storage.generateLocalFileName(null);
+    }
+
+    @Benchmark
+    public String withExtension() {
+        return storage.generateLocalFileName("jpg");
+    }
+
+    // Name generation shares state between request threads.
+    @Benchmark
+    @Threads(4)
+    public String contended() {
+        return storage.generateLocalFileName("jpg");
+    }
+}
@@ -0,0 +1,28 @@
+package ru.netology.homework_61.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import ru.netology.homework_61.controller.FilesController;
+
+// Leaves streaming upload requests unparsed, so their body can be read incrementally
+// instead of being spooled by the container first.
+@Component("multipartResolver")
+class StreamingMultipartResolver extends StandardServletMultipartResolver {
+    public StreamingMultipartResolver(MultipartProperties multipartProperties) {
+        setResolveLazily(multipartProperties.isResolveLazily());
+        setStrictServletCompliance(multipartProperties.isStrictServletCompliance());
+    }
+
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        var path = request.getRequestURI().substring(request.getContextPath().length());
+
+        if (FilesController.STREAMING_UPLOAD_PATH.equals(path)) {
+            return false;
+        }
+
+        return super.isMultipart(request);
+    }
+}
@@ -1,9 +1,14 @@
 package ru.netology.homework_61.config;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.netology.homework_61.controller.FileRegionsHttpMessageConverter;
+import ru.netology.homework_61.controller.FilesController;
+
+import java.util.List;
 
 @Configuration
 @EnableWebMvc
@@ -13,6 +18,12 @@ class WebConfig implements WebMvcConfigurer {
         registry.addMapping("/**")
                 .allowCredentials(true)
                 .allowedOrigins("http://localhost:8080")
-                .allowedMethods("*");
+                .allowedMethods("*")
+                .exposedHeaders(FilesController.NEXT_CURSOR_HEADER);
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new FileRegionsHttpMessageConverter());
     }
 }
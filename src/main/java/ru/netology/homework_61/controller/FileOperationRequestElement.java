@@ -0,0 +1,61 @@
+package ru.netology.homework_61.controller;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+public class FileOperationRequestElement {
+    // "delete", "rename" or "copy".
+    @JsonProperty("op")
+    private String operation;
+    @JsonProperty("filename")
+    private String fileName;
+    @JsonProperty("new_filename")
+    private String newFileName;
+
+    public FileOperationRequestElement() {
+        this("", "", null);
+    }
+
+    public FileOperationRequestElement(String operation, String fileName, String newFileName) {
+        this.operation = operation;
+        this.fileName = fileName;
+        this.newFileName = newFileName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getNewFileName() {
+        return newFileName;
+    }
+
+    public void setNewFileName(String newFileName) {
+        this.newFileName = newFileName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        FileOperationRequestElement that = (FileOperationRequestElement) o;
+        return Objects.equals(operation, that.operation) && Objects.equals(fileName, that.fileName) && Objects.equals(newFileName, that.newFileName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operation, fileName, newFileName);
+    }
+}
@@ -0,0 +1,49 @@
+package ru.netology.homework_61.controller;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+public class FileOperationResponseElement {
+    @JsonProperty("filename")
+    private String fileName;
+    // "ok", "file_not_found", "file_already_exists" or "invalid".
+    private String status;
+
+    public FileOperationResponseElement() {
+        this("", "");
+    }
+
+    public FileOperationResponseElement(String fileName, String status) {
+        this.fileName = fileName;
+        this.status = status;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        FileOperationResponseElement that = (FileOperationResponseElement) o;
+        return Objects.equals(fileName, that.fileName) && Objects.equals(status, that.status);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fileName, status);
+    }
+}
@@ -0,0 +1,208 @@
+package ru.netology.homework_61.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Byte ranges of a file sent in response body. A single range is sent as is,
+// several ranges are sent as multipart/byteranges.
+public class FileRegions {
+    private static final String BYTES_UNIT = "bytes=";
+
+    // Requests with more ranges are served as a whole file.
+    private static final int MAX_RANGES = 100;
+
+    private final Path path;
+    private final MediaType fileContentType;
+    private final long fileLength;
+    private final List<Region> regions;
+    private final String boundary;
+
+    public FileRegions(Path path, MediaType fileContentType, long fileLength, List<Region> regions) {
+        this.path = path;
+        this.fileContentType = fileContentType;
+        this.fileLength = fileLength;
+        this.regions = regions;
+        boundary = regions.size() > 1 ? MimeTypeUtils.generateMultipartBoundaryString() : null;
+    }
+
+    public static FileRegions wholeFile(Path path, MediaType fileContentType, long fileLength) {
+        return new FileRegions(path, fileContentType, fileLength, List.of(new Region(0, fileLength)));
+    }
+
+    // Parses Range header value. Returns null when the header is malformed and has to be
+    // ignored, empty list when none of the ranges can be satisfied. Overlapping ranges are merged.
+    public static List<Region> parseRanges(String header, long fileLength) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        var specs = header.substring(BYTES_UNIT.length()).split(",");
+
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        var res = new ArrayList<Region>(specs.length);
+
+        for (var spec : specs) {
+            spec = spec.trim();
+
+            var dash = spec.indexOf('-');
+
+            if (dash < 0) {
+                return null;
+            }
+
+            long start;
+            long end;
+
+            try {
+                if (dash == 0) {
+                    var suffixLength = Long.parseLong(spec.substring(1));
+
+                    if (suffixLength <= 0) {
+                        continue;
+                    }
+
+                    start = Math.max(0, fileLength - suffixLength);
+                    end = fileLength - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = dash == spec.length() - 1 ? fileLength - 1 : Long.parseLong(spec.substring(dash + 1));
+
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+
+                    end = Math.min(end, fileLength - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (start >= fileLength) {
+                continue;
+            }
+
+            res.add(new Region(start, end - start + 1));
+        }
+
+        res.sort(Comparator.comparingLong(Region::getStart));
+
+        var merged = new ArrayList<Region>(res.size());
+
+        for (var region : res) {
+            if (!merged.isEmpty()) {
+                var last = merged.get(merged.size() - 1);
+
+                if (region.getStart() <= last.getEnd() + 1) {
+                    var end = Math.max(last.getEnd(), region.getEnd());
+
+                    merged.set(merged.size() - 1, new Region(last.getStart(), end - last.getStart() + 1));
+
+                    continue;
+                }
+            }
+
+            merged.add(region);
+        }
+
+        return merged;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public List<Region> getRegions() {
+        return regions;
+    }
+
+    public boolean isMultipart() {
+        return boundary != null;
+    }
+
+    public MediaType getContentType() {
+        if (!isMultipart()) {
+            return fileContentType;
+        }
+
+        return new MediaType("multipart", "byteranges", Map.of("boundary", boundary));
+    }
+
+    public long getContentLength() {
+        if (!isMultipart()) {
+            return regions.get(0).getLength();
+        }
+
+        long res = 0;
+
+        for (var region : regions) {
+            res += partHeader(region).length + region.getLength();
+        }
+
+        return res + closingDelimiter().length;
+    }
+
+    public String contentRange(Region region) {
+        return "bytes " + region.getStart() + "-" + region.getEnd() + "/" + fileLength;
+    }
+
+    byte[] partHeader(Region region) {
+        var header = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + fileContentType + "\r\n"
+                + "Content-Range: " + contentRange(region) + "\r\n"
+                + "\r\n";
+
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    byte[] closingDelimiter() {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static class Region {
+        private final long start;
+        private final long length;
+
+        public Region(long start, long length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getEnd() {
+            return start + length - 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Region region)) return false;
+            return start == region.start && length == region.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, length);
+        }
+    }
+}
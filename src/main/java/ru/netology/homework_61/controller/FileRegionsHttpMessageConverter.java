@@ -0,0 +1,92 @@
+package ru.netology.homework_61.controller;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// Writes FileRegions with positioned FileChannel reads, so only the requested bytes are read from disk.
+public class FileRegionsHttpMessageConverter extends AbstractHttpMessageConverter<FileRegions> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public FileRegionsHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return FileRegions.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected FileRegions readInternal(Class<? extends FileRegions> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("File regions can only be written", inputMessage);
+    }
+
+    @Override
+    protected MediaType getDefaultContentType(FileRegions regions) {
+        return regions.getContentType();
+    }
+
+    @Override
+    protected Long getContentLength(FileRegions regions, MediaType contentType) {
+        return regions.getContentLength();
+    }
+
+    @Override
+    protected void writeInternal(FileRegions regions, HttpOutputMessage outputMessage) throws IOException {
+        var out = outputMessage.getBody();
+
+        try (var channel = FileChannel.open(regions.getPath(), StandardOpenOption.READ)) {
+            var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+            for (var region : regions.getRegions()) {
+                if (regions.isMultipart()) {
+                    out.write(regions.partHeader(region));
+                }
+
+                copyRegion(channel, region, buffer, out);
+            }
+
+            if (regions.isMultipart()) {
+                out.write(regions.closingDelimiter());
+            }
+        }
+
+        out.flush();
+    }
+
+    private static void copyRegion(FileChannel channel, FileRegions.Region region, ByteBuffer buffer, OutputStream out) throws IOException {
+        var position = region.getStart();
+        var remaining = region.getLength();
+
+        while (remaining > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+
+            var read = channel.read(buffer, position);
+
+            if (read < 0) {
+                throw new EOFException("File is shorter than expected");
+            }
+
+            out.write(buffer.array(), 0, read);
+
+            position += read;
+            remaining -= read;
+        }
+    }
+}
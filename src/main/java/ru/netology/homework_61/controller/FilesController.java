@@ -1,23 +1,50 @@
 package ru.netology.homework_61.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.env.Environment;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.netology.homework_61.model.FileData;
 import ru.netology.homework_61.service.*;
 
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
 
 @Controller
 @RequestMapping
 public class FilesController {
+    public static final String STREAMING_UPLOAD_PATH = "/file/stream";
+    public static final String NEXT_CURSOR_HEADER = "next-cursor";
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final String ARCHIVE_NAME = "files.zip";
+
     private final FilesService filesService;
+    private final boolean sendfile;
 
-    public FilesController(FilesService filesService) {
+    public FilesController(FilesService filesService, Environment env) {
         this.filesService = filesService;
+        sendfile = env.getProperty("files_sendfile", Boolean.class, true);
     }
 
     @PostMapping("/file")
@@ -32,6 +59,61 @@ public class FilesController {
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
+    // Same as POST /file, but the multipart body is parsed while it is being received:
+    // the file part goes straight to the storage instead of a container's temporary file.
+    @PostMapping(STREAMING_UPLOAD_PATH)
+    public ResponseEntity<Object> uploadFileStreaming(
+            @RequestHeader("auth-token") String authToken,
+            HttpServletRequest request
+    ) throws IOException, CloudServiceException, MissingServletRequestParameterException {
+
+        // request.getParameter() would make the container parse the whole multipart body.
+        var fileName = UriComponentsBuilder.newInstance()
+                .query(request.getQueryString())
+                .build()
+                .getQueryParams()
+                .getFirst("filename");
+
+        if (fileName == null) {
+            throw new MissingServletRequestParameterException("filename", "String");
+        }
+
+        fileName = URLDecoder.decode(fileName, StandardCharsets.UTF_8);
+
+        var boundary = request.getContentType() == null
+                ? null
+                : MediaType.parseMediaType(request.getContentType()).getParameter("boundary");
+
+        if (boundary == null) {
+            return new ResponseEntity<>(
+                    new ErrorResponse("Multipart boundary is not specified"),
+                    HttpStatus.BAD_REQUEST
+            );
+        }
+
+        if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+
+        var multipart = new MultipartStream(request.getInputStream(), boundary);
+
+        MultipartStream.Part part;
+
+        while ((part = multipart.nextPart()) != null) {
+            if ("file".equals(part.getName())) {
+                // The whole body is an upper bound of the file size.
+                filesService.uploadFile(authToken, fileName, part.getBody(), request.getContentLengthLong());
+
+                return new ResponseEntity<>(HttpStatus.OK);
+            }
+        }
+
+        return new ResponseEntity<>(
+                new ErrorResponse("Required part 'file' is not present"),
+                HttpStatus.BAD_REQUEST
+        );
+    }
+
     @DeleteMapping("/file")
     public ResponseEntity<Object> deleteFile(
             @RequestHeader("auth-token") String authToken,
@@ -43,16 +125,168 @@ public class FilesController {
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
+    // Conditional requests are answered from the files_data row, the file on disk is
+    // opened only when the content is actually sent. Only content bytes which are sent
+    // are recorded as downloaded: nothing for 304, 412 and 416, the ranges for 206.
     @GetMapping("/file")
     public ResponseEntity<Object> downloadFile(
             @RequestHeader("auth-token") String authToken,
-            @RequestParam("filename") String fileName
-    ) throws CloudServiceException {
+            @RequestParam("filename") String fileName,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            WebRequest webRequest,
+            HttpServletRequest servletRequest,
+            HttpServletResponse servletResponse
+    ) throws IOException, CloudServiceException {
 
-        var file = filesService.downloadFile(authToken, fileName);
+        var file = filesService.findFileForDownload(authToken, fileName);
 
-        return ResponseEntity.ok()
-                .body(file);
+        var fileData = file.getFileData();
+
+        // Compressed content is sent as is to clients which accept its encoding.
+        var sendEncoded = file.isEncoded()
+                && acceptsEncoding(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING), fileData.getContentEncoding());
+
+        // Responses are per user, shared caches must not keep them. Private caches
+        // have to revalidate, which is cheap thanks to the validators below.
+        servletResponse.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+
+        if (file.isEncoded()) {
+            servletResponse.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        var entityTag = sendEncoded ? entityTag(fileData, fileData.getContentEncoding()) : entityTag(fileData);
+
+        // Sets ETag and Last-Modified, answers If-None-Match and If-Modified-Since with 304,
+        // If-Match and If-Unmodified-Since with 412.
+        if (webRequest.checkNotModified(entityTag, lastModified(fileData))) {
+            return null;
+        }
+
+        var contentType = MediaTypeFactory.getMediaType(fileData.getName())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+        // Range requests are not supported for compressed files: offsets in the stored bytes
+        // don't match offsets in the content. The content is written here, returning a Resource
+        // would make Spring apply the Range header on its own.
+        if (file.isEncoded()) {
+            var content = sendEncoded ? file.toResource() : file.toDecodedResource();
+
+            servletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+            servletResponse.setContentType(contentType.toString());
+
+            if (sendEncoded) {
+                servletResponse.setHeader(HttpHeaders.CONTENT_ENCODING, fileData.getContentEncoding());
+                servletResponse.setContentLengthLong(content.contentLength());
+            } else {
+                servletResponse.setContentLengthLong(fileData.getSize());
+            }
+
+            try (var in = content.getInputStream()) {
+                filesService.recordDownloadedBytes(in.transferTo(servletResponse.getOutputStream()));
+            }
+
+            return null;
+        }
+
+        // Small files are served from the hot files cache instead.
+        var useSendfile = sendfile && !file.isCacheable() && Sendfile.isSupported(servletRequest);
+
+        if (range == null) {
+            if (useSendfile) {
+                servletResponse.setContentType(contentType.toString());
+
+                Sendfile.send(servletRequest, servletResponse, file.getPath(), 0, fileData.getSize());
+
+                filesService.recordDownloadedBytes(fileData.getSize());
+
+                return null;
+            }
+
+            filesService.recordDownloadedBytes(fileData.getSize());
+
+            return ResponseEntity.ok()
+                    .body(file.toResource());
+        }
+
+        var regions = FileRegions.parseRanges(range, fileData.getSize());
+
+        // Whole file is sent as FileRegions too: returning a Resource would make
+        // Spring apply the Range header on its own, ignoring If-Range.
+        if (regions == null || !ifRangeMatches(ifRange, fileData)) {
+            if (useSendfile) {
+                servletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+                servletResponse.setContentType(contentType.toString());
+
+                Sendfile.send(servletRequest, servletResponse, file.getPath(), 0, fileData.getSize());
+
+                filesService.recordDownloadedBytes(fileData.getSize());
+
+                return null;
+            }
+
+            filesService.recordDownloadedBytes(fileData.getSize());
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .contentType(contentType)
+                    .body(FileRegions.wholeFile(file.getPath(), contentType, fileData.getSize()));
+        }
+
+        if (regions.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileData.getSize())
+                    .build();
+        }
+
+        var body = new FileRegions(file.getPath(), contentType, fileData.getSize(), regions);
+
+        // Parts of multipart/byteranges are separated by headers, only a single range can be sent as is.
+        if (useSendfile && !body.isMultipart()) {
+            var region = regions.get(0);
+
+            servletResponse.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            servletResponse.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            servletResponse.setHeader(HttpHeaders.CONTENT_RANGE, body.contentRange(region));
+            servletResponse.setContentType(contentType.toString());
+
+            Sendfile.send(servletRequest, servletResponse, file.getPath(), region.getStart(), region.getLength());
+
+            filesService.recordDownloadedBytes(region.getLength());
+
+            return null;
+        }
+
+        var response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentType(body.getContentType());
+
+        if (!body.isMultipart()) {
+            response.header(HttpHeaders.CONTENT_RANGE, body.contentRange(regions.get(0)));
+        }
+
+        // Content of the ranges, without the part headers of multipart/byteranges.
+        filesService.recordDownloadedBytes(regions.stream().mapToLong(FileRegions.Region::getLength).sum());
+
+        return response.body(body);
+    }
+
+    // ZIP of the named files (of all files if no filename parameters are given).
+    // It is written straight into the response while it is being built, nothing is buffered.
+    @GetMapping("/archive")
+    public void downloadArchive(
+            @RequestHeader("auth-token") String authToken,
+            @RequestParam(value = "filename", required = false) List<String> fileNames,
+            HttpServletResponse response
+    ) throws IOException, CloudServiceException {
+
+        var archive = filesService.prepareArchive(authToken, fileNames);
+
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(ARCHIVE_NAME).build().toString());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noStore().getHeaderValue());
+
+        archive.writeTo(response.getOutputStream());
     }
 
     @PutMapping("/file")
@@ -67,17 +301,148 @@ public class FilesController {
         return new ResponseEntity<>(HttpStatus.OK);
     }
 
+    // The body names the copy the same way as for renaming.
+    @PostMapping("/file/copy")
+    public ResponseEntity<Object> copyFile(
+            @RequestHeader("auth-token") String authToken,
+            @RequestParam("filename") String fileName,
+            @RequestBody FileRenameRequestBody body
+    ) throws IOException, CloudServiceException {
+
+        filesService.copyFile(authToken, fileName, body.getNewName());
+
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    // Deletes, renames and copies files in one transaction. Operations are applied in order,
+    // the response has a result for each of them.
+    @PostMapping("/file/batch")
+    public ResponseEntity<Object> applyOperations(
+            @RequestHeader("auth-token") String authToken,
+            @RequestBody List<FileOperationRequestElement> body
+    ) throws IOException, CloudServiceException {
+
+        if (body.size() > MAX_BATCH_SIZE) {
+            return new ResponseEntity<>(
+                    new ErrorResponse(String.format("Batch can't have more than %d operations", MAX_BATCH_SIZE)),
+                    HttpStatus.BAD_REQUEST
+            );
+        }
+
+        var operations = new ArrayList<FileOperation>(body.size());
+
+        for (var element : body) {
+            operations.add(new FileOperation(operationType(element.getOperation()), element.getFileName(), element.getNewFileName()));
+        }
+
+        var results = filesService.applyOperations(authToken, operations);
+
+        var res = new ArrayList<FileOperationResponseElement>(results.size());
+
+        for (var result : results) {
+            res.add(
+                    new FileOperationResponseElement(
+                            result.getFileName(),
+                            result.getStatus().name().toLowerCase(Locale.ROOT)
+                    )
+            );
+        }
+
+        return ResponseEntity.ok()
+                .body(res);
+    }
+
+    @GetMapping("/usage")
+    public ResponseEntity<UsageResponse> getUsage(
+            @RequestHeader("auth-token") String authToken
+    ) throws CloudServiceException {
+
+        var usage = filesService.getUsage(authToken);
+
+        return ResponseEntity.ok(
+                new UsageResponse(
+                        usage.getUsedBytes(),
+                        usage.getQuota() > 0 ? usage.getQuota() : null
+                )
+        );
+    }
+
+    // Keyset pagination: "after" is the cursor from "next-cursor" header of the previous page.
+    // The header is absent on the last page.
     @GetMapping("/list")
-    public ResponseEntity<List<FilesListResponseElement>> getAllFiles(
+    public ResponseEntity<Object> getAllFiles(
             @RequestHeader("auth-token") String authToken,
-            @RequestParam("limit") int limit
+            @RequestParam("limit") int limit,
+            @RequestParam(value = "after", required = false) String after
     ) throws CloudServiceException {
 
-        var filesData = filesService.getAllFiles(authToken, limit);
+        String afterName;
+
+        try {
+            afterName = decodeCursor(after);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(
+                    new ErrorResponse("Invalid cursor"),
+                    HttpStatus.BAD_REQUEST
+            );
+        }
 
-        var res = new ArrayList<FilesListResponseElement>(filesData.size());
+        return toListResponse(filesService.getFilesPage(authToken, afterName, limit));
+    }
 
-        for (var element : filesData) {
+    // Files whose names contain the query (mode=contains), start with it (mode=prefix)
+    // or have it as the extension (mode=extension), case-insensitively. Paginated like GET /list.
+    @GetMapping("/search")
+    public ResponseEntity<Object> searchFiles(
+            @RequestHeader("auth-token") String authToken,
+            @RequestParam("query") String query,
+            @RequestParam(value = "mode", defaultValue = "contains") String mode,
+            @RequestParam("limit") int limit,
+            @RequestParam(value = "after", required = false) String after
+    ) throws CloudServiceException {
+
+        var searchMode = searchMode(mode);
+
+        if (searchMode == null) {
+            return new ResponseEntity<>(
+                    new ErrorResponse(String.format("Unknown search mode '%s'", mode)),
+                    HttpStatus.BAD_REQUEST
+            );
+        }
+
+        if (query.isEmpty()) {
+            return new ResponseEntity<>(
+                    new ErrorResponse("Search query is empty"),
+                    HttpStatus.BAD_REQUEST
+            );
+        }
+
+        String afterName;
+
+        try {
+            afterName = decodeCursor(after);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(
+                    new ErrorResponse("Invalid cursor"),
+                    HttpStatus.BAD_REQUEST
+            );
+        }
+
+        return toListResponse(filesService.searchFiles(authToken, query, searchMode, afterName, limit));
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
+    private static ResponseEntity<Object> toListResponse(FilesPage page) {
+        var res = new ArrayList<FilesListResponseElement>(page.getFiles().size());
+
+        for (var element : page.getFiles()) {
             res.add(
                     new FilesListResponseElement(
                             element.getName(),
@@ -86,7 +451,131 @@ public class FilesController {
             );
         }
 
-        return new ResponseEntity<>(res, HttpStatus.OK);
+        var response = ResponseEntity.ok();
+
+        if (page.hasNext()) {
+            var cursor = Base64.getUrlEncoder()
+                    .withoutPadding()
+                    .encodeToString(page.getLastName().getBytes(StandardCharsets.UTF_8));
+
+            response.header(NEXT_CURSOR_HEADER, cursor);
+        }
+
+        return response.body(res);
+    }
+
+    private static SearchMode searchMode(String mode) {
+        return switch (mode) {
+            case "contains" -> SearchMode.CONTAINS;
+            case "prefix" -> SearchMode.PREFIX;
+            case "extension" -> SearchMode.EXTENSION;
+            default -> null;
+        };
+    }
+
+    private static FileOperation.Type operationType(String operation) {
+        if (operation == null) {
+            return null;
+        }
+
+        return switch (operation) {
+            case "delete" -> FileOperation.Type.DELETE;
+            case "rename" -> FileOperation.Type.RENAME;
+            case "copy" -> FileOperation.Type.COPY;
+            default -> null;
+        };
+    }
+
+    private static String entityTag(FileData fileData) {
+        return opaqueEntityTag(fileData, fileData.getChecksum());
+    }
+
+    // Encoded representation differs from the original content, so it gets its own tag.
+    private static String entityTag(FileData fileData, String contentEncoding) {
+        return opaqueEntityTag(fileData, fileData.getChecksum() + "-" + contentEncoding);
+    }
+
+    // Strong entity tag only for cryptographic checksums: they change whenever the content does.
+    // Other checksums (CRC32C) collide easily, so the tag is weak and names the algorithm.
+    private static String opaqueEntityTag(FileData fileData, String opaqueTag) {
+        if (isCryptographic(fileData.getChecksumAlgorithm())) {
+            return "\"" + opaqueTag + "\"";
+        }
+
+        return "W/\"" + fileData.getChecksumAlgorithm().toLowerCase(Locale.ROOT) + "-" + opaqueTag + "\"";
+    }
+
+    private static boolean isCryptographic(String checksumAlgorithm) {
+        try {
+            return ChecksumAlgorithm.fromName(checksumAlgorithm).isCryptographic();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static long lastModified(FileData fileData) {
+        return fileData.getUploadedAt() == null ? -1 : fileData.getUploadedAt().toEpochMilli();
+    }
+
+    private static boolean acceptsEncoding(String acceptEncoding, String contentEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (var element : acceptEncoding.split(",")) {
+            var parameters = element.split(";");
+
+            var coding = parameters[0].trim();
+
+            if (!coding.equalsIgnoreCase(contentEncoding) && !coding.equals("*")) {
+                continue;
+            }
+
+            for (var i = 1; i < parameters.length; i++) {
+                var parameter = parameters[i].trim();
+
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    // If-Range holds either an entity tag or a date the client's copy was last modified at.
+    private static boolean ifRangeMatches(String ifRange, FileData fileData) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        // A weak entity tag never matches: If-Range requires strong comparison.
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+
+        // Files with a weak entity tag of their own don't match either.
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(entityTag(fileData));
+        }
+
+        if (fileData.getUploadedAt() == null) {
+            return false;
+        }
+
+        try {
+            var date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+
+            return fileData.getUploadedAt().truncatedTo(ChronoUnit.SECONDS).equals(date);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
     @ExceptionHandler(AuthorizationException.class)
@@ -112,4 +601,12 @@ public class FilesController {
                 HttpStatus.BAD_REQUEST
         );
     }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<ErrorResponse> quotaExceeded(QuotaExceededException e) {
+        return new ResponseEntity<>(
+                new ErrorResponse(e.getMessage()),
+                HttpStatus.INSUFFICIENT_STORAGE
+        );
+    }
 }
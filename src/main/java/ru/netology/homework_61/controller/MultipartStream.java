@@ -0,0 +1,272 @@
+package ru.netology.homework_61.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Incremental multipart/form-data parser. Parts are read one by one straight from the
+// request stream, only a small buffer is kept in memory.
+class MultipartStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADERS_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean eof;
+    private boolean finished;
+    private PartInputStream currentPart;
+
+    MultipartStream(InputStream in, String boundary) {
+        this.in = in;
+        delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        buffer = new byte[BUFFER_SIZE + delimiter.length];
+
+        // The first delimiter may come without leading CRLF, pretend it was there.
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        tail = 2;
+
+        // Preamble before the first delimiter is skipped as if it was a part body.
+        currentPart = new PartInputStream();
+    }
+
+    // Moves to the next part skipping the rest of the current one.
+    // Returns null when there are no more parts.
+    Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        currentPart.skipToEnd();
+
+        // Delimiter is followed by "--" for the last part or by CRLF otherwise.
+        head += delimiter.length;
+
+        fill(2);
+
+        if (tail - head >= 2 && buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+
+            return null;
+        }
+
+        var headers = readHeaders();
+
+        currentPart = new PartInputStream();
+
+        return new Part(headers, currentPart);
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        var headers = new HashMap<String, String>();
+        var line = new StringBuilder();
+        var headersSize = 0;
+
+        // Skips the rest of the delimiter line.
+        readLine(line);
+
+        while (true) {
+            line.setLength(0);
+
+            headersSize += readLine(line);
+
+            if (headersSize > MAX_HEADERS_SIZE) {
+                throw new IOException("Multipart part headers are too large");
+            }
+
+            if (line.isEmpty()) {
+                return headers;
+            }
+
+            var colon = line.indexOf(":");
+
+            if (colon > 0) {
+                headers.put(
+                        line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        line.substring(colon + 1).trim()
+                );
+            }
+        }
+    }
+
+    private int readLine(StringBuilder line) throws IOException {
+        var read = 0;
+
+        while (true) {
+            fill(1);
+
+            if (head == tail) {
+                throw new EOFException("Unexpected end of multipart stream");
+            }
+
+            var b = buffer[head++];
+
+            read++;
+
+            if (b == '\n') {
+                if (!line.isEmpty() && line.charAt(line.length() - 1) == '\r') {
+                    line.setLength(line.length() - 1);
+                }
+
+                return read;
+            }
+
+            line.append((char) (b & 0xff));
+
+            if (read > MAX_HEADERS_SIZE) {
+                throw new IOException("Multipart header line is too long");
+            }
+        }
+    }
+
+    // Makes at least count bytes available in the buffer unless the stream ends earlier.
+    private void fill(int count) throws IOException {
+        if (tail - head >= count || eof) {
+            return;
+        }
+
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+
+            tail -= head;
+            head = 0;
+        }
+
+        while (tail - head < count) {
+            var read = in.read(buffer, tail, buffer.length - tail);
+
+            if (read < 0) {
+                eof = true;
+
+                return;
+            }
+
+            tail += read;
+        }
+    }
+
+    private int indexOfDelimiter() {
+        var last = tail - delimiter.length;
+
+        outer:
+        for (var i = head; i <= last; i++) {
+            for (var j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    static class Part {
+        private final Map<String, String> headers;
+        private final InputStream body;
+
+        Part(Map<String, String> headers, InputStream body) {
+            this.headers = headers;
+            this.body = body;
+        }
+
+        // Value of "name" parameter of Content-Disposition header.
+        String getName() {
+            var disposition = headers.get("content-disposition");
+
+            if (disposition == null) {
+                return null;
+            }
+
+            for (var parameter : disposition.split(";")) {
+                var parts = parameter.trim().split("=", 2);
+
+                if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("name")) {
+                    var value = parts[1].trim();
+
+                    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+
+                    return value;
+                }
+            }
+
+            return null;
+        }
+
+        InputStream getBody() {
+            return body;
+        }
+    }
+
+    // Body of a part, ends right before the next delimiter.
+    private class PartInputStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            var b = new byte[1];
+
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) {
+                return -1;
+            }
+
+            if (len == 0) {
+                return 0;
+            }
+
+            fill(delimiter.length);
+
+            var delimiterIndex = indexOfDelimiter();
+
+            int available;
+
+            if (delimiterIndex >= 0) {
+                available = delimiterIndex - head;
+
+                if (available == 0) {
+                    ended = true;
+
+                    return -1;
+                }
+            } else {
+                if (eof) {
+                    throw new EOFException("Unexpected end of multipart stream");
+                }
+
+                // The buffer tail may hold the beginning of the delimiter.
+                available = tail - head - (delimiter.length - 1);
+            }
+
+            var count = Math.min(len, available);
+
+            System.arraycopy(buffer, head, b, off, count);
+
+            head += count;
+
+            return count;
+        }
+
+        private void skipToEnd() throws IOException {
+            var skipped = new byte[8192];
+
+            while (read(skipped, 0, skipped.length) >= 0) {
+                // Skipping the rest of the part.
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.netology.homework_61.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.nio.file.Path;
+
+// Hands a byte range of a file over to Tomcat, which writes it to the socket with
+// sendfile(2) once the handler returns: the bytes are neither read into the JVM nor
+// copied through the servlet output buffer. NIO and NIO2 connectors support it.
+final class Sendfile {
+    private static final String SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private Sendfile() {
+    }
+
+    static boolean isSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SUPPORTED_ATTRIBUTE));
+    }
+
+    // Status and other headers have to be set before, nothing may be written to the body.
+    static void send(HttpServletRequest request, HttpServletResponse response, Path path, long start, long length) {
+        response.setContentLengthLong(length);
+
+        request.setAttribute(FILENAME_ATTRIBUTE, path.toAbsolutePath().toString());
+        request.setAttribute(START_ATTRIBUTE, start);
+        // Exclusive.
+        request.setAttribute(END_ATTRIBUTE, start + length);
+    }
+}
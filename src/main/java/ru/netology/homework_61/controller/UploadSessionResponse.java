@@ -0,0 +1,73 @@
+package ru.netology.homework_61.controller;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+public class UploadSessionResponse {
+    @JsonProperty("upload-id")
+    private String uploadId;
+
+    @JsonProperty("filename")
+    private String fileName;
+
+    private long offset;
+
+    @JsonProperty("next-chunk")
+    private int nextChunk;
+
+    public UploadSessionResponse() {
+        this("", "", 0, 0);
+    }
+
+    public UploadSessionResponse(String uploadId, String fileName, long offset, int nextChunk) {
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.offset = offset;
+        this.nextChunk = nextChunk;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public void setUploadId(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public int getNextChunk() {
+        return nextChunk;
+    }
+
+    public void setNextChunk(int nextChunk) {
+        this.nextChunk = nextChunk;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        UploadSessionResponse that = (UploadSessionResponse) o;
+        return offset == that.offset && nextChunk == that.nextChunk && Objects.equals(uploadId, that.uploadId) && Objects.equals(fileName, that.fileName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(uploadId, fileName, offset, nextChunk);
+    }
+}
@@ -0,0 +1,131 @@
+package ru.netology.homework_61.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import ru.netology.homework_61.model.UploadSession;
+import ru.netology.homework_61.service.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Resumable upload protocol: POST /upload creates a session, chunks are sent with
+// PUT /upload/{id}/{chunk} in order, GET /upload/{id} tells where to continue from,
+// POST /upload/{id}/commit stores the file the same way POST /file does.
+@Controller
+@RequestMapping("/upload")
+public class UploadSessionsController {
+    private final UploadSessionsService uploadSessionsService;
+
+    public UploadSessionsController(UploadSessionsService uploadSessionsService) {
+        this.uploadSessionsService = uploadSessionsService;
+    }
+
+    @PostMapping
+    public ResponseEntity<UploadSessionResponse> createSession(
+            @RequestHeader("auth-token") String authToken,
+            @RequestParam("filename") String fileName
+    ) throws CloudServiceException {
+
+        var session = uploadSessionsService.createSession(authToken, fileName);
+
+        return new ResponseEntity<>(toResponse(session), HttpStatus.OK);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<UploadSessionResponse> getSession(
+            @RequestHeader("auth-token") String authToken,
+            @PathVariable("id") String uploadId
+    ) throws CloudServiceException {
+
+        var session = uploadSessionsService.getSession(authToken, uploadId);
+
+        return new ResponseEntity<>(toResponse(session), HttpStatus.OK);
+    }
+
+    @PutMapping("/{id}/{chunk}")
+    public ResponseEntity<UploadSessionResponse> uploadChunk(
+            @RequestHeader("auth-token") String authToken,
+            @RequestHeader("chunk-checksum") String checksum,
+            @PathVariable("id") String uploadId,
+            @PathVariable("chunk") int chunk,
+            InputStream content
+    ) throws IOException, CloudServiceException {
+
+        var session = uploadSessionsService.receiveChunk(authToken, uploadId, chunk, checksum, content);
+
+        return new ResponseEntity<>(toResponse(session), HttpStatus.OK);
+    }
+
+    @PostMapping("/{id}/commit")
+    public ResponseEntity<Object> commit(
+            @RequestHeader("auth-token") String authToken,
+            @PathVariable("id") String uploadId
+    ) throws IOException, CloudServiceException {
+
+        uploadSessionsService.commit(authToken, uploadId);
+
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Object> cancel(
+            @RequestHeader("auth-token") String authToken,
+            @PathVariable("id") String uploadId
+    ) throws IOException, CloudServiceException {
+
+        uploadSessionsService.cancel(authToken, uploadId);
+
+        return new ResponseEntity<>(HttpStatus.OK);
+    }
+
+    private static UploadSessionResponse toResponse(UploadSession session) {
+        return new UploadSessionResponse(
+                session.getId(),
+                session.getFileName(),
+                session.getReceivedBytes(),
+                session.getNextChunk()
+        );
+    }
+
+    @ExceptionHandler(AuthorizationException.class)
+    public ResponseEntity<ErrorResponse> respondWithUnauthorized(AuthorizationException e) {
+        return new ResponseEntity<>(
+                new ErrorResponse("Unauthorized"),
+                HttpStatus.UNAUTHORIZED
+        );
+    }
+
+    @ExceptionHandler(UploadSessionNotFoundException.class)
+    public ResponseEntity<ErrorResponse> sessionNotFound(UploadSessionNotFoundException e) {
+        return new ResponseEntity<>(
+                new ErrorResponse(String.format("Upload session '%s' does not exist", e.getUploadId())),
+                HttpStatus.NOT_FOUND
+        );
+    }
+
+    @ExceptionHandler(ChunkOutOfOrderException.class)
+    public ResponseEntity<ErrorResponse> chunkOutOfOrder(ChunkOutOfOrderException e) {
+        return new ResponseEntity<>(
+                new ErrorResponse(e.getMessage()),
+                HttpStatus.CONFLICT
+        );
+    }
+
+    @ExceptionHandler(ChunkRejectedException.class)
+    public ResponseEntity<ErrorResponse> chunkRejected(ChunkRejectedException e) {
+        return new ResponseEntity<>(
+                new ErrorResponse(e.getMessage()),
+                HttpStatus.BAD_REQUEST
+        );
+    }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<ErrorResponse> quotaExceeded(QuotaExceededException e) {
+        return new ResponseEntity<>(
+                new ErrorResponse(e.getMessage()),
+                HttpStatus.INSUFFICIENT_STORAGE
+        );
+    }
+}
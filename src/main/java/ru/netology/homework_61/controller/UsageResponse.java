@@ -0,0 +1,51 @@
+package ru.netology.homework_61.controller;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+public class UsageResponse {
+    @JsonProperty("used-bytes")
+    private long usedBytes;
+
+    // null when storage is not limited.
+    @JsonProperty("quota-bytes")
+    private Long quotaBytes;
+
+    public UsageResponse() {
+        this(0, null);
+    }
+
+    public UsageResponse(long usedBytes, Long quotaBytes) {
+        this.usedBytes = usedBytes;
+        this.quotaBytes = quotaBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public void setUsedBytes(long usedBytes) {
+        this.usedBytes = usedBytes;
+    }
+
+    public Long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public void setQuotaBytes(Long quotaBytes) {
+        this.quotaBytes = quotaBytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || getClass() != o.getClass()) return false;
+        UsageResponse that = (UsageResponse) o;
+        return usedBytes == that.usedBytes && Objects.equals(quotaBytes, that.quotaBytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(usedBytes, quotaBytes);
+    }
+}
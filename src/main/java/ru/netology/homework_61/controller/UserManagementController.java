@@ -1,12 +1,15 @@
 package ru.netology.homework_61.controller;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import ru.netology.homework_61.service.LoginThrottledException;
 import ru.netology.homework_61.service.PasswordMismatchException;
 import ru.netology.homework_61.service.UserAlreadyExistsException;
 import ru.netology.homework_61.service.UserManagementService;
@@ -22,7 +25,7 @@ public class UserManagementController {
     }
 
     @PostMapping("/login")
-    public ResponseEntity<SuccessfulLoginResponse> login(@RequestBody UserCredentials credentials) {
+    public ResponseEntity<SuccessfulLoginResponse> login(@RequestBody UserCredentials credentials) throws LoginThrottledException {
         try {
             var token = umService.login(credentials.getLogin(), credentials.getPassword());
 
@@ -41,4 +44,11 @@ public class UserManagementController {
 
         return new ResponseEntity<>(HttpStatus.OK);
     }
+
+    @ExceptionHandler(LoginThrottledException.class)
+    public ResponseEntity<ErrorResponse> loginThrottled(LoginThrottledException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, e.getRetryAfter().toSeconds())))
+                .body(new ErrorResponse("Too many logins in progress, try again later"));
+    }
 }
@@ -0,0 +1,67 @@
+package ru.netology.homework_61.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.util.Objects;
+
+// Tombstone of stored content which is no longer referenced. It is written in the transaction
+// which drops the last reference, the content is removed from disk later by FilesReaper.
+@Entity
+@Table(name = "deleted_files")
+public class DeletedFile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "deleted_files_seq")
+    @SequenceGenerator(name = "deleted_files_seq", sequenceName = "deleted_files_seq", allocationSize = 50)
+    private long id;
+
+    @Column(name = "local_name", nullable = false)
+    private String localName;
+
+    @Column(name = "deleted_at", nullable = false)
+    private Instant deletedAt;
+
+    public DeletedFile() {
+        this("", Instant.EPOCH);
+    }
+
+    public DeletedFile(String localName, Instant deletedAt) {
+        this.localName = localName;
+        this.deletedAt = deletedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getLocalName() {
+        return localName;
+    }
+
+    public void setLocalName(String localName) {
+        this.localName = localName;
+    }
+
+    public Instant getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Instant deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DeletedFile that)) return false;
+        return id == that.id && Objects.equals(localName, that.localName) && Objects.equals(deletedAt, that.deletedAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, localName, deletedAt);
+    }
+}
@@ -0,0 +1,88 @@
+package ru.netology.homework_61.model;
+
+import jakarta.persistence.*;
+
+import java.util.Objects;
+
+// File content shared between several files_data rows with the same checksum.
+@Entity
+@Table(name = "file_blobs")
+public class FileBlob {
+    @Id
+    private String checksum;
+
+    @Column(name = "local_name", nullable = false)
+    private String localName;
+
+    @Column(nullable = false)
+    private long size;
+
+    @Column(name = "ref_count", nullable = false)
+    private long refCount;
+
+    // Content-Encoding the content is stored with, null if it is stored as is.
+    @Column(name = "content_encoding")
+    private String contentEncoding;
+
+    public FileBlob() {
+        this("", "", 0, 0);
+    }
+
+    public FileBlob(String checksum, String localName, long size, long refCount) {
+        this.checksum = checksum;
+        this.localName = localName;
+        this.size = size;
+        this.refCount = refCount;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getLocalName() {
+        return localName;
+    }
+
+    public void setLocalName(String localName) {
+        this.localName = localName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(long refCount) {
+        this.refCount = refCount;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileBlob fileBlob)) return false;
+        return size == fileBlob.size && refCount == fileBlob.refCount && Objects.equals(checksum, fileBlob.checksum) && Objects.equals(localName, fileBlob.localName) && Objects.equals(contentEncoding, fileBlob.contentEncoding);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(checksum, localName, size, refCount, contentEncoding);
+    }
+}
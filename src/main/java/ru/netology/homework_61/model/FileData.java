@@ -2,13 +2,20 @@ package ru.netology.homework_61.model;
 
 import jakarta.persistence.*;
 
+import java.time.Instant;
 import java.util.Objects;
 
 @Entity
-@Table(name = "files_data")
+@Table(name = "files_data", uniqueConstraints = @UniqueConstraint(name = "files_data_user_id_name_key", columnNames = {"user_id", "name"}))
 public class FileData {
+    // Files uploaded before the algorithm became configurable were checksummed with it.
+    public static final String DEFAULT_CHECKSUM_ALGORITHM = "SHA-256";
+
+    // Ids are allocated from the sequence 50 at a time, so inserts can be sent in JDBC batches
+    // (with IDENTITY each insert has to be executed on its own to get the id back).
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "files_data_seq")
+    @SequenceGenerator(name = "files_data_seq", sequenceName = "files_data_seq", allocationSize = 50)
     private long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -24,9 +31,25 @@ public class FileData {
     @Column(nullable = false)
     private String checksum;
 
+    @Column(name = "checksum_algorithm", nullable = false)
+    private String checksumAlgorithm;
+
     @Column(nullable = false)
     private long size;
 
+    // Checksum of the shared blob the file points at, null for files stored privately.
+    @Column(name = "blob_checksum")
+    private String blobChecksum;
+
+    // Content-Encoding the content is stored with, null if it is stored as is.
+    // size is the size of the content before encoding.
+    @Column(name = "content_encoding")
+    private String contentEncoding;
+
+    // When the content was uploaded, null for files uploaded before it was recorded.
+    @Column(name = "uploaded_at")
+    private Instant uploadedAt;
+
     public FileData() {
         this(new User(), "", "", "", 0);
     }
@@ -41,6 +64,7 @@ public class FileData {
         this.name = name;
         this.localName = localName;
         this.checksum = checksum;
+        this.checksumAlgorithm = DEFAULT_CHECKSUM_ALGORITHM;
         this.size = size;
     }
 
@@ -84,6 +108,14 @@ public class FileData {
         this.checksum = checkSum;
     }
 
+    public String getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public void setChecksumAlgorithm(String checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
     public long getSize() {
         return size;
     }
@@ -92,14 +124,38 @@ public class FileData {
         this.size = size;
     }
 
+    public String getBlobChecksum() {
+        return blobChecksum;
+    }
+
+    public void setBlobChecksum(String blobChecksum) {
+        this.blobChecksum = blobChecksum;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    public Instant getUploadedAt() {
+        return uploadedAt;
+    }
+
+    public void setUploadedAt(Instant uploadedAt) {
+        this.uploadedAt = uploadedAt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof FileData fileData)) return false;
-        return id == fileData.id && size == fileData.size && Objects.equals(user, fileData.user) && Objects.equals(name, fileData.name) && Objects.equals(localName, fileData.localName) && Objects.equals(checksum, fileData.checksum);
+        return id == fileData.id && size == fileData.size && Objects.equals(user, fileData.user) && Objects.equals(name, fileData.name) && Objects.equals(localName, fileData.localName) && Objects.equals(checksum, fileData.checksum) && Objects.equals(checksumAlgorithm, fileData.checksumAlgorithm) && Objects.equals(blobChecksum, fileData.blobChecksum) && Objects.equals(contentEncoding, fileData.contentEncoding) && Objects.equals(uploadedAt, fileData.uploadedAt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, user, name, localName, checksum, size);
+        return Objects.hash(id, user, name, localName, checksum, checksumAlgorithm, size, blobChecksum, contentEncoding, uploadedAt);
     }
 }
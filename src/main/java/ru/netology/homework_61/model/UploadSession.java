@@ -0,0 +1,100 @@
+package ru.netology.homework_61.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+import java.util.Objects;
+
+// Resumable upload in progress. Received bytes are kept in a staging file until the upload is committed.
+@Entity
+@Table(name = "upload_sessions")
+public class UploadSession {
+    @Id
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+
+    @Column(name = "received_bytes", nullable = false)
+    private long receivedBytes;
+
+    @Column(name = "next_chunk", nullable = false)
+    private int nextChunk;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    public UploadSession() {
+        this("", new User(), "", Instant.EPOCH);
+    }
+
+    public UploadSession(String id, User user, String fileName, Instant updatedAt) {
+        this.id = id;
+        this.user = user;
+        this.fileName = fileName;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public void setReceivedBytes(long receivedBytes) {
+        this.receivedBytes = receivedBytes;
+    }
+
+    public int getNextChunk() {
+        return nextChunk;
+    }
+
+    public void setNextChunk(int nextChunk) {
+        this.nextChunk = nextChunk;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UploadSession that)) return false;
+        return receivedBytes == that.receivedBytes && nextChunk == that.nextChunk && Objects.equals(id, that.id) && Objects.equals(user, that.user) && Objects.equals(fileName, that.fileName) && Objects.equals(updatedAt, that.updatedAt);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, user, fileName, receivedBytes, nextChunk, updatedAt);
+    }
+}
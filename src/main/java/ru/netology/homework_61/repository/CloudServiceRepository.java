@@ -1,21 +1,40 @@
 package ru.netology.homework_61.repository;
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
 import jakarta.persistence.NoResultException;
 import jakarta.transaction.Transactional;
+import org.hibernate.LockOptions;
+import org.hibernate.query.NativeQuery;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Repository;
+import ru.netology.homework_61.model.DeletedFile;
+import ru.netology.homework_61.model.FileBlob;
 import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.UploadSession;
 import ru.netology.homework_61.model.User;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+// Every query is timed as repository.query tagged with the method name.
 @Repository
+@Timed("repository.query")
 public class CloudServiceRepository {
     private final EntityManager db;
+    private final Duration sessionMaxAge;
+    private final Duration sessionIdleTimeout;
+    private final Duration sessionLastSeenResolution;
 
-    public CloudServiceRepository(EntityManager db) {
+    public CloudServiceRepository(EntityManager db, Environment env) {
         this.db = db;
+        sessionMaxAge = env.getProperty("session_max_age", Duration.class, Duration.ofDays(30));
+        sessionIdleTimeout = env.getProperty("session_idle_timeout", Duration.class, Duration.ofDays(7));
+        sessionLastSeenResolution = env.getProperty("session_last_seen_resolution", Duration.class, Duration.ofMinutes(5));
     }
 
     @Transactional
@@ -40,7 +59,7 @@ public class CloudServiceRepository {
 
     @Transactional
     public void saveUserSession(String accessToken, User user) {
-        db.persist(new UserSession(user, accessToken));
+        db.persist(new UserSession(user, accessToken, Instant.now()));
     }
 
     @Transactional
@@ -52,47 +71,113 @@ public class CloudServiceRepository {
         query.executeUpdate();
     }
 
+    // Expired sessions are not found. Last seen time of the found one is written
+    // only when it is older than session_last_seen_resolution, so most lookups don't write.
     @Transactional
     public Optional<User> findUserIdByAccessToken(String token) {
         if (token == null) {
             return Optional.empty();
         }
 
+        var now = Instant.now();
+
         var query = db.createQuery(
                 """
-                        select user
-                        from User user
-                            join UserSession session
-                            on user = session.user
+                        select session
+                        from UserSession session
+                            join fetch session.user
                         where session.accessToken = :token
+                            and session.createdAt > :createdAfter
+                            and session.lastSeenAt > :seenAfter
                         """,
-                User.class
+                UserSession.class
         );
 
         query.setParameter("token", token);
+        query.setParameter("createdAfter", now.minus(sessionMaxAge));
+        query.setParameter("seenAfter", now.minus(sessionIdleTimeout));
 
-        try {
-            var queryRes = query.getSingleResult();
+        UserSession session;
 
-            return Optional.of(queryRes);
+        try {
+            session = query.getSingleResult();
         } catch (NoResultException e) {
             return Optional.empty();
         }
+
+        if (session.getLastSeenAt().isBefore(now.minus(sessionLastSeenResolution))) {
+            session.setLastSeenAt(now);
+        }
+
+        return Optional.of(session.getUser());
     }
 
+    // Removes up to limit expired sessions, returns their tokens.
+    @Transactional
+    public List<String> deleteExpiredUserSessions(int limit) {
+        var now = Instant.now();
+
+        var query = db.createNativeQuery(
+                """
+                        delete from user_sessions
+                        where id in (
+                            select id
+                            from user_sessions
+                            where created_at <= :createdBefore or last_seen_at <= :seenBefore
+                            limit :limit
+                            for update skip locked
+                        )
+                        returning access_token
+                        """,
+                String.class
+        );
+
+        query.setParameter("createdBefore", now.minus(sessionMaxAge));
+        query.setParameter("seenBefore", now.minus(sessionIdleTimeout));
+        query.setParameter("limit", limit);
+
+        return query.getResultList();
+    }
+
+    // A new file is added to the user's used bytes, saving a loaded one (a rename) changes nothing.
     @Transactional
     public void saveFileData(FileData fileData) {
+        var isNew = !db.contains(fileData);
+
         db.persist(fileData);
+
+        if (isNew) {
+            changeUsedBytes(fileData.getUser(), fileData.getSize());
+        }
     }
 
+    // Deletes the file and drops its reference to the content in the same transaction:
+    // privately stored content gets a tombstone, blobs lose a reference.
     @Transactional
     public boolean deleteFileData(User user, String fileName) {
-        var query = db.createQuery("delete FileData fd where fd.user = :user and fd.name = :fileName");
+        var query = db.createNativeQuery("delete from files_data where user_id = :userId and name = :fileName returning local_name, blob_checksum, size");
 
-        query.setParameter("user", user);
+        query.setParameter("userId", user.getId());
         query.setParameter("fileName", fileName);
 
-        return query.executeUpdate() > 0;
+        var rows = query.getResultList();
+
+        if (rows.isEmpty()) {
+            return false;
+        }
+
+        var row = (Object[]) rows.get(0);
+
+        // The user's row is locked before the blob's, the order uploads and batches take them in.
+        changeUsedBytes(user, -((Number) row[2]).longValue());
+
+        if (row[1] == null) {
+            addDeletedFile((String) row[0]);
+        } else {
+            releaseBlob((String) row[1]);
+        }
+
+        return true;
     }
 
     @Transactional
@@ -111,12 +196,535 @@ public class CloudServiceRepository {
         }
     }
 
+    // Files of the user with given names, names which don't exist are skipped.
+    @Transactional
+    public List<FileData> findFilesData(User user, Collection<String> fileNames) {
+        var query = db.createQuery("select fd from FileData fd where fd.user = :user and fd.name in :names", FileData.class);
+
+        query.setParameter("user", user);
+        query.setParameter("names", fileNames);
+
+        return query.getResultList();
+    }
+
+    // Files of the user with given names, locked until the end of the transaction.
+    // Changes made to them are written on flush.
+    @Transactional
+    public List<FileData> lockFilesData(User user, Collection<String> fileNames) {
+        var query = db.createQuery("select fd from FileData fd where fd.user = :user and fd.name in :names", FileData.class);
+
+        query.setParameter("user", user);
+        query.setParameter("names", fileNames);
+
+        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+
+        return query.getResultList();
+    }
+
+    // Deletes a row loaded in the current transaction, the statement is batched until flush.
+    // Batch counterparts of saveFileData and deleteFileData: the statements are sent in JDBC batches,
+    // and the caller changes the user's used bytes once for the whole batch.
+    @Transactional
+    public void addFileData(FileData fileData) {
+        db.persist(fileData);
+    }
+
+    @Transactional
+    public void removeFileData(FileData fileData) {
+        db.remove(fileData);
+    }
+
+    @Transactional
+    public void changeUsedBytes(User user, long delta) {
+        if (delta == 0) {
+            return;
+        }
+
+        var query = db.createNativeQuery("update users set used_bytes = used_bytes + :delta where id = :userId");
+
+        query.setParameter("delta", delta);
+        query.setParameter("userId", user.getId());
+
+        // Only users table is affected, pending files_data statements stay batched instead of being flushed.
+        query.unwrap(NativeQuery.class).addSynchronizedQuerySpace("users");
+
+        query.executeUpdate();
+    }
+
+    @Transactional
+    public long getUsedBytes(User user) {
+        var query = db.createNativeQuery("select used_bytes from users where id = :userId", Long.class);
+
+        query.setParameter("userId", user.getId());
+
+        return (Long) query.getSingleResult();
+    }
+
+    // Same as getUsedBytes, but the user's row stays locked until the end of the transaction,
+    // so concurrent changes checked against the quota are applied one after another.
+    @Transactional
+    public long lockUsedBytes(User user) {
+        var query = db.createNativeQuery("select used_bytes from users where id = :userId for update", Long.class);
+
+        query.setParameter("userId", user.getId());
+
+        return (Long) query.getSingleResult();
+    }
+
+    // Locks up to limit users following afterId, so their files can't change until
+    // the transaction ends. Returns their ids in order.
+    @Transactional
+    public List<Long> lockUsers(long afterId, int limit) {
+        var query = db.createNativeQuery("select id from users where id > :afterId order by id limit :limit for update", Long.class);
+
+        query.setParameter("afterId", afterId);
+        query.setParameter("limit", limit);
+
+        return query.getResultList();
+    }
+
+    // Recomputes used bytes of the users from their files, returns the number of counters which were wrong.
+    // Users have to be locked by an earlier statement, this one must see the files of transactions that held the locks.
+    @Transactional
+    public int recomputeUsedBytes(Collection<Long> userIds) {
+        var query = db.createNativeQuery(
+                """
+                        update users u
+                        set used_bytes = s.total
+                        from (
+                            select u2.id, coalesce(sum(fd.size), 0) as total
+                            from users u2
+                                left join files_data fd on fd.user_id = u2.id
+                            where u2.id in (:userIds)
+                            group by u2.id
+                        ) s
+                        where u.id = s.id and u.used_bytes <> s.total
+                        """
+        );
+
+        query.setParameter("userIds", userIds);
+
+        return query.executeUpdate();
+    }
+
+    // Sends the statements accumulated by the current transaction.
+    @Transactional
+    public void flush() {
+        db.flush();
+    }
+
+    // Files of the user ordered by name, starting right after afterName (from the first file if it is null).
+    // Seeks through the (user_id, name) index, so deep pages cost the same as the first one.
+    @Transactional
+    public List<FileData> listFilesByUser(User user, String afterName, int limit) {
+        var query = afterName == null
+                ? db.createQuery("select fd from FileData fd where fd.user = :user order by fd.name", FileData.class)
+                : db.createQuery("select fd from FileData fd where fd.user = :user and fd.name > :afterName order by fd.name", FileData.class);
+
+        query.setParameter("user", user);
+
+        if (afterName != null) {
+            query.setParameter("afterName", afterName);
+        }
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
+
+    // Files of the user whose names match the case-insensitive LIKE pattern (escaped with '!'),
+    // ordered by name and paginated like listFilesByUser. Patterns with three or more
+    // literal characters are looked up in the trigram index.
+    @Transactional
+    public List<FileData> searchFilesByUser(User user, String pattern, String afterName, int limit) {
+        var query = afterName == null
+                ? db.createQuery("select fd from FileData fd where fd.user = :user and fd.name ilike :pattern escape '!' order by fd.name", FileData.class)
+                : db.createQuery("select fd from FileData fd where fd.user = :user and fd.name ilike :pattern escape '!' and fd.name > :afterName order by fd.name", FileData.class);
+
+        query.setParameter("user", user);
+        query.setParameter("pattern", pattern);
+
+        if (afterName != null) {
+            query.setParameter("afterName", afterName);
+        }
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
+
+    // Adds a reference to the blob with given checksum creating it if necessary.
+    // Returns the blob state after the reference was taken (ref count 1 means the blob is new).
+    // An existing blob keeps its content encoding.
+    @Transactional
+    public FileBlob acquireBlob(String checksum, String localName, long size, String contentEncoding) {
+        // A tombstone of the previous blob with the same name must not be reaped
+        // after this one is placed, see FilesReaper.
+        lockLocalName(localName);
+
+        var query = db.createNativeQuery(
+                """
+                        insert into file_blobs (checksum, local_name, size, ref_count, content_encoding)
+                        values (:checksum, :localName, :size, 1, cast(:contentEncoding as varchar))
+                        on conflict (checksum) do update
+                            set ref_count = file_blobs.ref_count + 1
+                        returning checksum, local_name, size, ref_count, content_encoding
+                        """
+        );
+
+        query.setParameter("checksum", checksum);
+        query.setParameter("localName", localName);
+        query.setParameter("size", size);
+        query.setParameter("contentEncoding", contentEncoding);
+
+        var row = (Object[]) query.getSingleResult();
+
+        var blob = new FileBlob(
+                (String) row[0],
+                (String) row[1],
+                ((Number) row[2]).longValue(),
+                ((Number) row[3]).longValue()
+        );
+
+        blob.setContentEncoding((String) row[4]);
+
+        return blob;
+    }
+
+    // Drops a reference to the blob. When the last reference goes away the blob row is deleted
+    // and a tombstone is left for its content.
+    @Transactional
+    public boolean releaseBlob(String checksum) {
+        return changeBlobReferences(checksum, -1);
+    }
+
+    // Adds delta (possibly negative) references to an existing blob, removing it like releaseBlob
+    // when none are left. Returns whether the blob was removed.
+    @Transactional
+    public boolean changeBlobReferences(String checksum, long delta) {
+        var blob = db.find(FileBlob.class, checksum, LockModeType.PESSIMISTIC_WRITE);
+
+        if (blob == null) {
+            return false;
+        }
+
+        if (blob.getRefCount() + delta > 0) {
+            blob.setRefCount(blob.getRefCount() + delta);
+
+            return false;
+        }
+
+        db.remove(blob);
+
+        addDeletedFile(blob.getLocalName());
+
+        return true;
+    }
+
+    @Transactional
+    public void addDeletedFile(String localName) {
+        db.persist(new DeletedFile(localName, Instant.now()));
+    }
+
+    // Tombstones older than deletedBefore. Rows locked by other transactions are skipped,
+    // so several instances can reap concurrently.
+    @Transactional
+    public List<DeletedFile> claimDeletedFiles(Instant deletedBefore, int limit) {
+        var query = db.createQuery("select d from DeletedFile d where d.deletedAt < :deletedBefore order by d.deletedAt", DeletedFile.class);
+
+        query.setParameter("deletedBefore", deletedBefore);
+
+        query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        query.setHint("jakarta.persistence.lock.timeout", LockOptions.SKIP_LOCKED);
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
+
+    @Transactional
+    public void removeDeletedFile(DeletedFile deletedFile) {
+        db.remove(deletedFile);
+    }
+
+    // Serializes reuse of a local name with removal of its tombstoned file until the end of the transaction.
+    @Transactional
+    public void lockLocalName(String localName) {
+        var query = db.createNativeQuery("select 1 from pg_advisory_xact_lock(hashtextextended(:localName, 0))");
+
+        query.setParameter("localName", localName);
+
+        query.getSingleResult();
+    }
+
+    // Serializes replacing of the user's file with this name until the end of the transaction, across instances.
+    // The name is hashed with the user id as the seed, local names are locked with seed 0.
+    @Transactional
+    public void lockFileName(User user, String fileName) {
+        var query = db.createNativeQuery("select 1 from pg_advisory_xact_lock(hashtextextended(:fileName, :userId))");
+
+        query.setParameter("fileName", fileName);
+        query.setParameter("userId", user.getId());
+
+        query.getSingleResult();
+    }
+
+    @Transactional
+    public boolean isLocalNameReferenced(String localName) {
+        var query = db.createNativeQuery(
+                """
+                        select exists (select 1 from files_data where local_name = :localName)
+                            or exists (select 1 from file_blobs where local_name = :localName)
+                        """,
+                Boolean.class
+        );
+
+        query.setParameter("localName", localName);
+
+        return (Boolean) query.getSingleResult();
+    }
+
+    // Names among localNames which are referenced or already have a tombstone.
+    @Transactional
+    public List<String> findKnownLocalNames(Collection<String> localNames) {
+        var query = db.createNativeQuery(
+                """
+                        select local_name from files_data where local_name in (:localNames)
+                        union
+                        select local_name from file_blobs where local_name in (:localNames)
+                        union
+                        select local_name from deleted_files where local_name in (:localNames)
+                        """,
+                String.class
+        );
+
+        query.setParameter("localNames", localNames);
+
+        return query.getResultList();
+    }
+
+    @Transactional
+    public List<FileBlob> listBlobs(String afterChecksum, int limit) {
+        var query = db.createQuery("select b from FileBlob b where b.checksum > :afterChecksum order by b.checksum", FileBlob.class);
+
+        query.setParameter("afterChecksum", afterChecksum);
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
+
+    // Deletes a privately stored file whose content is missing, unless it was changed meanwhile.
+    @Transactional
+    public boolean deleteDanglingFileData(long fileDataId, String localName) {
+        var query = db.createNativeQuery(
+                """
+                        with deleted as (
+                            delete from files_data
+                            where id = :id and local_name = :localName and blob_checksum is null
+                            returning user_id, size
+                        )
+                        update users u
+                        set used_bytes = u.used_bytes - d.size
+                        from deleted d
+                        where u.id = d.user_id
+                        """
+        );
+
+        query.setParameter("id", fileDataId);
+        query.setParameter("localName", localName);
+
+        return query.executeUpdate() > 0;
+    }
+
+    // Deletes a blob whose content is missing together with the files pointing at it,
+    // unless it was moved meanwhile. Returns the number of deleted files.
+    @Transactional
+    public int deleteDanglingBlob(String checksum, String localName) {
+        var blobQuery = db.createQuery("delete FileBlob b where b.checksum = :checksum and b.localName = :localName");
+
+        blobQuery.setParameter("checksum", checksum);
+        blobQuery.setParameter("localName", localName);
+
+        if (blobQuery.executeUpdate() == 0) {
+            return 0;
+        }
+
+        var filesQuery = db.createNativeQuery(
+                """
+                        with deleted as (
+                            delete from files_data
+                            where blob_checksum = :checksum
+                            returning user_id, size
+                        )
+                        update users u
+                        set used_bytes = u.used_bytes - d.total
+                        from (select user_id, sum(size) as total, count(*) as files from deleted group by user_id) d
+                        where u.id = d.user_id
+                        returning d.files
+                        """,
+                Long.class
+        );
+
+        filesQuery.setParameter("checksum", checksum);
+
+        List<Long> filesPerUser = filesQuery.getResultList();
+
+        var res = 0;
+
+        for (var files : filesPerUser) {
+            res += files.intValue();
+        }
+
+        return res;
+    }
+
     @Transactional
-    public List<FileData> listFilesByUser(User user, int limit) {
-        var query = db.createQuery("select fd from FileData fd where fd.user = :user order by fd.name", FileData.class);
+    public List<FileData> listPrivateFiles(long afterId, int limit) {
+        var query = db.createQuery(
+                "select fd from FileData fd where fd.blobChecksum is null and fd.id > :afterId order by fd.id",
+                FileData.class
+        );
+
+        query.setParameter("afterId", afterId);
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
 
+    @Transactional
+    public boolean attachFileToBlob(long fileDataId, String localName, String blobChecksum, String contentEncoding) {
+        var query = db.createQuery(
+                """
+                        update FileData fd
+                        set fd.localName = :localName, fd.blobChecksum = :checksum, fd.contentEncoding = :contentEncoding
+                        where fd.id = :id
+                        """
+        );
+
+        query.setParameter("localName", localName);
+        query.setParameter("checksum", blobChecksum);
+        query.setParameter("contentEncoding", contentEncoding);
+        query.setParameter("id", fileDataId);
+
+        return query.executeUpdate() == 1;
+    }
+
+    // Privately stored files which are still in the flat layout of files_directory.
+    @Transactional
+    public List<FileData> listFlatFiles(long afterId, int limit) {
+        var query = db.createQuery(
+                """
+                        select fd from FileData fd
+                        where fd.blobChecksum is null and fd.localName not like '%/%' and fd.id > :afterId
+                        order by fd.id
+                        """,
+                FileData.class
+        );
+
+        query.setParameter("afterId", afterId);
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
+
+    // Changes the file's local name unless it was changed or the file was deleted concurrently.
+    @Transactional
+    public boolean moveFile(long fileDataId, String oldLocalName, String newLocalName) {
+        var query = db.createQuery("update FileData fd set fd.localName = :newLocalName where fd.id = :id and fd.localName = :oldLocalName");
+
+        query.setParameter("newLocalName", newLocalName);
+        query.setParameter("id", fileDataId);
+        query.setParameter("oldLocalName", oldLocalName);
+
+        return query.executeUpdate() == 1;
+    }
+
+    // Blobs which are still in the flat layout of files_directory.
+    @Transactional
+    public List<FileBlob> listFlatBlobs(String afterChecksum, int limit) {
+        var query = db.createQuery(
+                "select b from FileBlob b where b.localName not like '%/%' and b.checksum > :afterChecksum order by b.checksum",
+                FileBlob.class
+        );
+
+        query.setParameter("afterChecksum", afterChecksum);
+
+        query.setMaxResults(limit);
+
+        return query.getResultList();
+    }
+
+    // Changes the local name of the blob and of all files pointing at it,
+    // unless the blob was changed or released concurrently.
+    @Transactional
+    public boolean moveBlob(String checksum, String oldLocalName, String newLocalName) {
+        var blobQuery = db.createQuery("update FileBlob b set b.localName = :newLocalName where b.checksum = :checksum and b.localName = :oldLocalName");
+
+        blobQuery.setParameter("newLocalName", newLocalName);
+        blobQuery.setParameter("checksum", checksum);
+        blobQuery.setParameter("oldLocalName", oldLocalName);
+
+        if (blobQuery.executeUpdate() != 1) {
+            return false;
+        }
+
+        var filesQuery = db.createQuery("update FileData fd set fd.localName = :newLocalName where fd.blobChecksum = :checksum");
+
+        filesQuery.setParameter("newLocalName", newLocalName);
+        filesQuery.setParameter("checksum", checksum);
+
+        filesQuery.executeUpdate();
+
+        return true;
+    }
+
+    @Transactional
+    public void saveUploadSession(UploadSession session) {
+        db.persist(session);
+    }
+
+    @Transactional
+    public Optional<UploadSession> findUploadSession(User user, String id) {
+        var query = db.createQuery("select s from UploadSession s where s.id = :id and s.user = :user", UploadSession.class);
+
+        query.setParameter("id", id);
         query.setParameter("user", user);
 
+        try {
+            var queryRes = query.getSingleResult();
+
+            return Optional.of(queryRes);
+        } catch (NoResultException e) {
+            return Optional.empty();
+        }
+    }
+
+    // Locks the session row until the end of the transaction, chunks are appended under the lock.
+    @Transactional
+    public Optional<UploadSession> lockUploadSession(String id) {
+        var session = db.find(UploadSession.class, id, LockModeType.PESSIMISTIC_WRITE);
+
+        return Optional.ofNullable(session);
+    }
+
+    @Transactional
+    public boolean deleteUploadSession(String id) {
+        var query = db.createQuery("delete UploadSession s where s.id = :id");
+
+        query.setParameter("id", id);
+
+        return query.executeUpdate() > 0;
+    }
+
+    @Transactional
+    public List<String> listExpiredUploadSessions(Instant updatedBefore, int limit) {
+        var query = db.createQuery("select s.id from UploadSession s where s.updatedAt < :before order by s.updatedAt", String.class);
+
+        query.setParameter("before", updatedBefore);
+
         query.setMaxResults(limit);
 
         return query.getResultList();
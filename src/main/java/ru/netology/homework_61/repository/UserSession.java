@@ -3,6 +3,7 @@ package ru.netology.homework_61.repository;
 import jakarta.persistence.*;
 import ru.netology.homework_61.model.User;
 
+import java.time.Instant;
 import java.util.Objects;
 
 @Entity
@@ -19,9 +20,22 @@ public class UserSession {
     @Column(name = "access_token")
     private String accessToken;
 
-    public UserSession(User user, String accessToken) {
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    // Updated at most once per session_last_seen_resolution.
+    @Column(name = "last_seen_at")
+    private Instant lastSeenAt;
+
+    public UserSession() {
+        this(null, "", Instant.EPOCH);
+    }
+
+    public UserSession(User user, String accessToken, Instant createdAt) {
         this.user = user;
         this.accessToken = accessToken;
+        this.createdAt = createdAt;
+        lastSeenAt = createdAt;
     }
 
     public User getUser() {
@@ -40,14 +54,30 @@ public class UserSession {
         this.accessToken = accessToken;
     }
 
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getLastSeenAt() {
+        return lastSeenAt;
+    }
+
+    public void setLastSeenAt(Instant lastSeenAt) {
+        this.lastSeenAt = lastSeenAt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof UserSession that)) return false;
-        return Objects.equals(user, that.user) && Objects.equals(accessToken, that.accessToken);
+        return Objects.equals(user, that.user) && Objects.equals(accessToken, that.accessToken) && Objects.equals(createdAt, that.createdAt) && Objects.equals(lastSeenAt, that.lastSeenAt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(user, accessToken);
+        return Objects.hash(user, accessToken, createdAt, lastSeenAt);
     }
 }
@@ -0,0 +1,180 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded in-process cache of access token to user lookups. Entries live for
+// access_token_cache_ttl, the least recently used ones are evicted when
+// access_token_cache_size is exceeded. Only successful lookups are cached.
+@Component
+public class AccessTokenCache implements MeterBinder {
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final CloudServiceRepository repository;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final ReentrantLock lock;
+    private final LinkedHashMap<String, Entry> entries;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    // Incremented by every invalidation. Lookups which started before an invalidation
+    // don't put their result into the cache because it may already be stale.
+    private long generation;
+
+    public AccessTokenCache(CloudServiceRepository repository, Environment env) {
+        this.repository = repository;
+        maxSize = env.getProperty("access_token_cache_size", Integer.class, 10000);
+        ttlNanos = env.getProperty("access_token_cache_ttl", Duration.class, Duration.ofMinutes(1)).toNanos();
+        lock = new ReentrantLock();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public static String normalizeToken(String authToken) {
+        if (authToken != null && authToken.startsWith(BEARER_PREFIX)) {
+            return authToken.substring(BEARER_PREFIX.length());
+        }
+
+        return authToken;
+    }
+
+    public Optional<User> findUserByAccessToken(String authToken) {
+        var token = normalizeToken(authToken);
+
+        if (token == null || maxSize <= 0) {
+            return repository.findUserIdByAccessToken(token);
+        }
+
+        var now = System.nanoTime();
+        long lookupGeneration;
+
+        lock.lock();
+
+        try {
+            var entry = entries.get(token);
+
+            if (entry != null) {
+                if (now - entry.loadedAt < ttlNanos) {
+                    hits.increment();
+
+                    return Optional.of(entry.user);
+                }
+
+                entries.remove(token);
+
+                evictions.increment();
+            }
+
+            lookupGeneration = generation;
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+
+        var user = repository.findUserIdByAccessToken(token);
+
+        if (user.isPresent()) {
+            lock.lock();
+
+            try {
+                if (lookupGeneration == generation) {
+                    entries.put(token, new Entry(user.get(), now));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return user;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("access.token.cache.hits", this, AccessTokenCache::getHits)
+                .register(registry);
+        FunctionCounter.builder("access.token.cache.misses", this, AccessTokenCache::getMisses)
+                .register(registry);
+        FunctionCounter.builder("access.token.cache.evictions", this, AccessTokenCache::getEvictions)
+                .register(registry);
+        Gauge.builder("access.token.cache.size", this, AccessTokenCache::getSize)
+                .register(registry);
+    }
+
+    // Must be called after the session is removed from the database.
+    public void invalidate(String authToken) {
+        var token = normalizeToken(authToken);
+
+        lock.lock();
+
+        try {
+            generation++;
+
+            if (entries.remove(token) != null) {
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        lock.lock();
+
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry {
+        private final User user;
+        private final long loadedAt;
+
+        private Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.netology.homework_61.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.Objects;
+
+// One-off migration which folds files stored under random names into shared blobs.
+// Runs on startup when files_deduplication_migration property is set.
+@Component
+public class BlobStoreMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(BlobStoreMigration.class);
+    private static final int BATCH_SIZE = 100;
+
+    private final CloudServiceRepository repository;
+    private final FilesStorage storage;
+    private final TransactionTemplate transactions;
+    private final boolean enabled;
+
+    public BlobStoreMigration(CloudServiceRepository repository, FilesStorage storage, TransactionTemplate transactions, Environment env) {
+        this.repository = repository;
+        this.storage = storage;
+        this.transactions = transactions;
+        enabled = env.getProperty("files_deduplication_migration", Boolean.class, false);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+
+        long lastId = 0;
+        long migrated = 0;
+        long failed = 0;
+
+        while (true) {
+            var batch = repository.listPrivateFiles(lastId, BATCH_SIZE);
+
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            for (var fileData : batch) {
+                lastId = fileData.getId();
+
+                // Blobs are keyed by SHA-256, other checksums can't identify the content.
+                if (!ChecksumAlgorithm.SHA_256.getName().equals(fileData.getChecksumAlgorithm())) {
+                    failed++;
+
+                    log.warn("File {} has {} checksum and can't be moved into blob storage", fileData.getLocalName(), fileData.getChecksumAlgorithm());
+
+                    continue;
+                }
+
+                try {
+                    migrate(fileData);
+
+                    migrated++;
+                } catch (IOException | RuntimeException e) {
+                    failed++;
+
+                    log.warn("Failed to move file {} into blob storage", fileData.getLocalName(), e);
+                }
+            }
+        }
+
+        log.info("Blob storage migration finished: {} files migrated, {} failed", migrated, failed);
+    }
+
+    private void migrate(FileData fileData) throws IOException {
+        var oldPath = storage.resolve(fileData.getLocalName());
+
+        // The old name is linked (not moved) into the blob, so files_data row
+        // stays valid until the transaction which repoints it commits.
+        try {
+            transactions.executeWithoutResult(status -> {
+                var blob = repository.acquireBlob(fileData.getChecksum(), storage.shardedName(fileData.getChecksum()), fileData.getSize(), fileData.getContentEncoding());
+
+                try {
+                    var blobPath = storage.resolveForWriting(blob.getLocalName());
+
+                    // A new blob may still have a leftover of the interrupted previous run.
+                    var linkFile = blob.getRefCount() == 1
+                            || (!Files.exists(blobPath) && Objects.equals(blob.getContentEncoding(), fileData.getContentEncoding()));
+
+                    if (linkFile) {
+                        Files.deleteIfExists(blobPath);
+
+                        try {
+                            Files.createLink(blobPath, oldPath);
+                        } catch (UnsupportedOperationException | FileSystemException e) {
+                            Files.copy(oldPath, blobPath);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                // The reference is taken only together with the file which holds it.
+                if (!repository.attachFileToBlob(fileData.getId(), blob.getLocalName(), blob.getChecksum(), blob.getContentEncoding())) {
+                    status.setRollbackOnly();
+
+                    return;
+                }
+
+                // Downloads which read the row before the commit may still be opening the old path,
+                // so it is removed by FilesReaper after files_deletion_delay, like a deleted file.
+                repository.addDeletedFile(fileData.getLocalName());
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.netology.homework_61.service;
+
+import jakarta.annotation.Nullable;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Stored content of a small file, read through HotFilesCache.
+class CachedFileResource extends AbstractResource {
+    private final HotFilesCache cache;
+    private final String localName;
+    private final Path path;
+    private final String filename;
+
+    public CachedFileResource(HotFilesCache cache, String localName, Path path, String filename) {
+        this.cache = cache;
+        this.localName = localName;
+        this.path = path;
+        this.filename = filename;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return cache.open(localName, path);
+    }
+
+    @Override
+    public boolean exists() {
+        return cache.length(localName) >= 0 || Files.exists(path);
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        var length = cache.length(localName);
+
+        return length >= 0 ? length : Files.size(path);
+    }
+
+    // The file the content is cached from.
+    @Override
+    public File getFile() {
+        return path.toFile();
+    }
+
+    @Override
+    public @Nullable String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getDescription() {
+        return "cached file [" + path + "]";
+    }
+}
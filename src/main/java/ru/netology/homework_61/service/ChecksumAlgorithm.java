@@ -0,0 +1,105 @@
+package ru.netology.homework_61.service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+// Algorithms files content can be checksummed with. The name is stored next to every checksum.
+public enum ChecksumAlgorithm {
+    SHA_256("SHA-256", true) {
+        @Override
+        Hasher newHasher() {
+            MessageDigest digest;
+
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+
+            return new Hasher() {
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    digest.update(data, offset, length);
+                }
+
+                @Override
+                public byte[] finish() {
+                    return digest.digest();
+                }
+
+                @Override
+                public void reset() {
+                    digest.reset();
+                }
+            };
+        }
+    },
+
+    // Integrity only: much faster (hardware accelerated), but collisions are easy to produce,
+    // so it can't be used to identify content.
+    CRC32C("CRC32C", false) {
+        @Override
+        Hasher newHasher() {
+            var crc = new CRC32C();
+
+            return new Hasher() {
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    crc.update(data, offset, length);
+                }
+
+                @Override
+                public byte[] finish() {
+                    var value = crc.getValue();
+
+                    crc.reset();
+
+                    return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+                }
+
+                @Override
+                public void reset() {
+                    crc.reset();
+                }
+            };
+        }
+    };
+
+    private final String name;
+    private final boolean cryptographic;
+
+    ChecksumAlgorithm(String name, boolean cryptographic) {
+        this.name = name;
+        this.cryptographic = cryptographic;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isCryptographic() {
+        return cryptographic;
+    }
+
+    abstract Hasher newHasher();
+
+    public static ChecksumAlgorithm fromName(String name) {
+        for (var algorithm : values()) {
+            if (algorithm.name.equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown checksum algorithm: " + name);
+    }
+
+    // Reusable checksum state. finish() returns the checksum and makes it ready for the next content.
+    interface Hasher {
+        void update(byte[] data, int offset, int length);
+
+        byte[] finish();
+
+        void reset();
+    }
+}
@@ -0,0 +1,113 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Calculates checksums of files content with checksum_algorithm. Hashers and copy
+// buffers are pooled, so a steady stream of uploads doesn't allocate them again.
+@Component
+public class ChecksumEngine {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int POOL_SIZE = 64;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_TABLE = new char[256 * 2];
+
+    static {
+        for (var i = 0; i < 256; i++) {
+            HEX_TABLE[i * 2] = HEX_DIGITS[i >>> 4];
+            HEX_TABLE[i * 2 + 1] = HEX_DIGITS[i & 0xf];
+        }
+    }
+
+    private final ChecksumAlgorithm algorithm;
+    private final Timer checksumTimer;
+
+    // A shared pool instead of thread locals: with virtual threads every request runs
+    // on a new thread, so a thread local state would never be reused.
+    private final ArrayBlockingQueue<State> pool;
+
+    public ChecksumEngine(Environment env, MeterRegistry meterRegistry) {
+        algorithm = ChecksumAlgorithm.fromName(env.getProperty("checksum_algorithm", ChecksumAlgorithm.SHA_256.getName()));
+        checksumTimer = Timer.builder("files.checksum")
+                .description("Time spent hashing file content, excluding I/O")
+                .tag("algorithm", algorithm.getName())
+                .register(meterRegistry);
+        pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    }
+
+    public ChecksumAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    // Copies src to dest and returns the checksum of the content. Only the hashing
+    // itself is timed, so the metric shows CPU cost separately from the disk.
+    public String copy(InputStream src, OutputStream dest) throws IOException {
+        var state = acquire();
+
+        try (src) {
+            var buffer = state.buffer;
+            long hashingNanos = 0;
+            int read;
+
+            while ((read = src.read(buffer)) >= 0) {
+                var start = System.nanoTime();
+
+                state.hasher.update(buffer, 0, read);
+
+                hashingNanos += System.nanoTime() - start;
+
+                dest.write(buffer, 0, read);
+            }
+
+            checksumTimer.record(hashingNanos, TimeUnit.NANOSECONDS);
+
+            return toHex(state.hasher.finish());
+        } finally {
+            release(state);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        var res = new char[bytes.length * 2];
+
+        for (var i = 0; i < bytes.length; i++) {
+            var index = (bytes[i] & 0xff) * 2;
+
+            res[i * 2] = HEX_TABLE[index];
+            res[i * 2 + 1] = HEX_TABLE[index + 1];
+        }
+
+        return new String(res);
+    }
+
+    private State acquire() {
+        var state = pool.poll();
+
+        return state == null ? new State(algorithm.newHasher()) : state;
+    }
+
+    private void release(State state) {
+        state.hasher.reset();
+
+        // Extra states above the pool size are left to the garbage collector.
+        pool.offer(state);
+    }
+
+    private static class State {
+        private final ChecksumAlgorithm.Hasher hasher;
+        private final byte[] buffer;
+
+        private State(ChecksumAlgorithm.Hasher hasher) {
+            this.hasher = hasher;
+            buffer = new byte[BUFFER_SIZE];
+        }
+    }
+}
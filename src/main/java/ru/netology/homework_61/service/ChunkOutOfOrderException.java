@@ -0,0 +1,15 @@
+package ru.netology.homework_61.service;
+
+public class ChunkOutOfOrderException extends CloudServiceException {
+    private final int expectedChunk;
+
+    public ChunkOutOfOrderException(int expectedChunk) {
+        super(String.format("Chunk %d is expected", expectedChunk));
+
+        this.expectedChunk = expectedChunk;
+    }
+
+    public int getExpectedChunk() {
+        return expectedChunk;
+    }
+}
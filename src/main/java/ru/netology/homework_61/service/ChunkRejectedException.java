@@ -0,0 +1,8 @@
+package ru.netology.homework_61.service;
+
+// Chunk content doesn't match its checksum or exceeds the chunk size limit.
+public class ChunkRejectedException extends CloudServiceException {
+    public ChunkRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,105 @@
+package ru.netology.homework_61.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Decides which uploads are worth compressing and wraps streams for the stored encoding.
+// Content which is compressed already (media, archives) is recognized by the file
+// extension or by the signature in its first bytes and is stored as is.
+final class ContentCompression {
+    static final String GZIP = "gzip";
+    static final int SNIFF_SIZE = 16;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "mp4", "m4v", "mov", "mkv", "webm", "avi",
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "rar",
+            "jar", "apk", "docx", "xlsx", "pptx", "odt", "ods", "odp"
+    );
+
+    private static final byte[][] COMPRESSED_SIGNATURES = {
+            {0x1f, (byte) 0x8b}, // gzip
+            {'P', 'K', 3, 4}, // zip and formats based on it
+            {(byte) 0x89, 'P', 'N', 'G'},
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff}, // jpeg
+            {'G', 'I', 'F', '8'},
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd}, // zstd
+            {'B', 'Z', 'h'},
+            {(byte) 0xfd, '7', 'z', 'X', 'Z', 0}, // xz
+            {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},
+            {'R', 'a', 'r', '!'},
+            {'O', 'g', 'g', 'S'},
+            {'f', 'L', 'a', 'C'},
+            {'I', 'D', '3'}, // mp3
+    };
+
+    // ISO media (mp4, mov, heic) has the box type at offset 4.
+    private static final byte[] ISO_MEDIA_SIGNATURE = {'f', 't', 'y', 'p'};
+
+    private ContentCompression() {
+    }
+
+    static boolean isCompressible(String extension, byte[] head) {
+        if (extension != null && COMPRESSED_EXTENSIONS.contains(extension.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+
+        for (var signature : COMPRESSED_SIGNATURES) {
+            if (startsWith(head, 0, signature)) {
+                return false;
+            }
+        }
+
+        return !startsWith(head, 4, ISO_MEDIA_SIGNATURE);
+    }
+
+    // Returns the first bytes of the content leaving them in the stream.
+    static byte[] sniff(PushbackInputStream content) throws IOException {
+        var head = content.readNBytes(SNIFF_SIZE);
+
+        content.unread(head);
+
+        return head;
+    }
+
+    static InputStream decode(String encoding, InputStream stored) throws IOException {
+        if (encoding == null) {
+            return stored;
+        }
+
+        if (GZIP.equals(encoding)) {
+            return new GZIPInputStream(stored, BUFFER_SIZE);
+        }
+
+        throw new IOException("Unsupported content encoding: " + encoding);
+    }
+
+    private static boolean startsWith(byte[] head, int offset, byte[] signature) {
+        return head.length >= offset + signature.length
+                && Arrays.equals(head, offset, offset + signature.length, signature, 0, signature.length);
+    }
+
+    // Gzip stream which reports the size of the content written into it.
+    static class GzipWriter extends GZIPOutputStream {
+        GzipWriter(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+
+            def.setLevel(level);
+        }
+
+        // Must be called before the stream is closed.
+        long getContentSize() {
+            return def.getBytesRead();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.netology.homework_61.service;
+
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import ru.netology.homework_61.model.FileData;
+
+import java.net.MalformedURLException;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+// File found for download. Nothing is read from disk until the content is requested,
+// the file isn't even located: requests answered from the row alone don't touch the disk.
+public class DownloadableFile {
+    private final FileData fileData;
+    private final Supplier<Path> locator;
+    private final HotFilesCache cache;
+    private Path path;
+
+    public DownloadableFile(FileData fileData, Path path, HotFilesCache cache) {
+        this(fileData, () -> path, cache);
+    }
+
+    DownloadableFile(FileData fileData, Supplier<Path> locator, HotFilesCache cache) {
+        this.fileData = fileData;
+        this.locator = locator;
+        this.cache = cache;
+    }
+
+    public FileData getFileData() {
+        return fileData;
+    }
+
+    // Located on the first call: in the flat layout that checks which of the paths exists.
+    public Path getPath() {
+        if (path == null) {
+            path = locator.get();
+        }
+
+        return path;
+    }
+
+    // Whether the content is read through the hot files cache.
+    public boolean isCacheable() {
+        return cache.accepts(fileData.getSize());
+    }
+
+    public boolean isEncoded() {
+        return fileData.getContentEncoding() != null;
+    }
+
+    // Stored bytes, encoded with the file's content encoding if it has one.
+    // Small files are read through the hot files cache.
+    public Resource toResource() {
+        if (isCacheable()) {
+            return new CachedFileResource(cache, fileData.getLocalName(), getPath(), fileData.getName());
+        }
+
+        try {
+            return new UrlResourceWithSpecifiedFilename(getPath().toFile().toURI(), fileData.getName());
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Original content, decoded on the fly if it is stored encoded.
+    public Resource toDecodedResource() {
+        if (!isEncoded()) {
+            return toResource();
+        }
+
+        var stored = toResource();
+
+        return new InputStreamResource(
+                () -> ContentCompression.decode(fileData.getContentEncoding(), stored.getInputStream()),
+                fileData.getName()
+        );
+    }
+}
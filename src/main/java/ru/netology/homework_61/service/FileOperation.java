@@ -0,0 +1,46 @@
+package ru.netology.homework_61.service;
+
+import java.util.Objects;
+
+// One operation of a batch applied by FilesService.applyOperations.
+public class FileOperation {
+    public enum Type {
+        DELETE,
+        RENAME,
+        COPY
+    }
+
+    private final Type type;
+    private final String fileName;
+    // Target name of RENAME and COPY.
+    private final String newFileName;
+
+    public FileOperation(Type type, String fileName, String newFileName) {
+        this.type = type;
+        this.fileName = fileName;
+        this.newFileName = newFileName;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getNewFileName() {
+        return newFileName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileOperation that)) return false;
+        return type == that.type && Objects.equals(fileName, that.fileName) && Objects.equals(newFileName, that.newFileName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, fileName, newFileName);
+    }
+}
@@ -0,0 +1,41 @@
+package ru.netology.homework_61.service;
+
+import java.util.Objects;
+
+public class FileOperationResult {
+    public enum Status {
+        OK,
+        FILE_NOT_FOUND,
+        FILE_ALREADY_EXISTS,
+        QUOTA_EXCEEDED,
+        // Unknown operation type or a missing target name.
+        INVALID
+    }
+
+    private final String fileName;
+    private final Status status;
+
+    public FileOperationResult(String fileName, Status status) {
+        this.fileName = fileName;
+        this.status = status;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FileOperationResult that)) return false;
+        return Objects.equals(fileName, that.fileName) && status == that.status;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fileName, status);
+    }
+}
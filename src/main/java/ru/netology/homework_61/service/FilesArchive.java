@@ -0,0 +1,158 @@
+package ru.netology.homework_61.service;
+
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// ZIP of user's files built while it is being sent. Rows are fetched a page at a time and
+// files are read one by one, so memory use doesn't depend on the number or size of the files.
+public class FilesArchive {
+    private static final int PAGE_SIZE = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CloudServiceRepository repository;
+    private final FilesStorage storage;
+    private final User user;
+    // Null for all files of the user.
+    private final List<String> fileNames;
+
+    FilesArchive(CloudServiceRepository repository, FilesStorage storage, User user, List<String> fileNames) {
+        this.repository = repository;
+        this.storage = storage;
+        this.user = user;
+        this.fileNames = fileNames;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        var zip = new ZipOutputStream(out);
+        var buffer = new byte[BUFFER_SIZE];
+        var entryNames = new HashSet<String>();
+
+        if (fileNames == null) {
+            String afterName = null;
+
+            while (true) {
+                var page = repository.listFilesByUser(user, afterName, PAGE_SIZE);
+
+                for (var fileData : page) {
+                    writeEntry(zip, fileData, buffer, entryNames);
+                }
+
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+
+                afterName = page.get(page.size() - 1).getName();
+            }
+        } else {
+            var names = List.copyOf(new LinkedHashSet<>(fileNames));
+
+            for (var from = 0; from < names.size(); from += PAGE_SIZE) {
+                var pageNames = names.subList(from, Math.min(from + PAGE_SIZE, names.size()));
+
+                var files = new HashMap<String, FileData>();
+
+                for (var fileData : repository.findFilesData(user, pageNames)) {
+                    files.put(fileData.getName(), fileData);
+                }
+
+                // Entries follow the requested order, names which don't exist are skipped.
+                for (var name : pageNames) {
+                    var fileData = files.get(name);
+
+                    if (fileData != null) {
+                        writeEntry(zip, fileData, buffer, entryNames);
+                    }
+                }
+            }
+        }
+
+        zip.finish();
+    }
+
+    private void writeEntry(ZipOutputStream zip, FileData fileData, byte[] buffer, Set<String> entryNames) throws IOException {
+        PushbackInputStream content;
+
+        try {
+            var stored = Files.newInputStream(storage.locate(fileData.getLocalName()));
+
+            content = new PushbackInputStream(ContentCompression.decode(fileData.getContentEncoding(), stored), ContentCompression.SNIFF_SIZE);
+        } catch (NoSuchFileException e) {
+            // Deleted after it was listed.
+            return;
+        }
+
+        try (content) {
+            var extension = FilesStorage.extractExtension(fileData.getName()).orElse(null);
+
+            // Compressed content is wrapped into stored deflate blocks: it is copied almost for free
+            // and, unlike STORED entries, doesn't need its CRC before the data is written.
+            zip.setLevel(ContentCompression.isCompressible(extension, ContentCompression.sniff(content)) ? Deflater.BEST_SPEED : Deflater.NO_COMPRESSION);
+
+            var entry = new ZipEntry(entryName(fileData.getName(), entryNames));
+
+            entry.setSize(fileData.getSize());
+
+            if (fileData.getUploadedAt() != null) {
+                entry.setTime(fileData.getUploadedAt().toEpochMilli());
+            }
+
+            zip.putNextEntry(entry);
+
+            int read;
+
+            while ((read = content.read(buffer)) >= 0) {
+                zip.write(buffer, 0, read);
+            }
+
+            zip.closeEntry();
+        }
+    }
+
+    // File names are arbitrary strings, extractors would take "..", a leading "/" or "\" for a path
+    // outside of the target directory. Such parts are dropped, names left the same get a number.
+    private static String entryName(String fileName, Set<String> entryNames) {
+        var segments = new ArrayList<String>();
+
+        for (var segment : fileName.replace('\\', '/').split("/")) {
+            if (!segment.isEmpty() && !segment.equals(".") && !segment.equals("..")) {
+                segments.add(segment);
+            }
+        }
+
+        var name = segments.isEmpty() ? "file" : String.join("/", segments);
+
+        if (entryNames.add(name)) {
+            return name;
+        }
+
+        var extensionStart = name.lastIndexOf('.');
+
+        if (extensionStart <= name.lastIndexOf('/') + 1) {
+            extensionStart = name.length();
+        }
+
+        for (var i = 1; ; i++) {
+            var numbered = name.substring(0, extensionStart) + " (" + i + ")" + name.substring(extensionStart);
+
+            if (entryNames.add(numbered)) {
+                return numbered;
+            }
+        }
+    }
+}
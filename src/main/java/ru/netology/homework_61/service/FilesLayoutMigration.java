@@ -0,0 +1,192 @@
+package ru.netology.homework_61.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.BooleanSupplier;
+
+// Moves files stored in the flat layout of files_directory into prefix directories.
+// Runs in background on startup when files_layout_migration property is set, the service stays up meanwhile.
+@Component
+public class FilesLayoutMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(FilesLayoutMigration.class);
+    private static final int BATCH_SIZE = 100;
+    // Requests which read the old name just before it was changed may still open it for a while.
+    private static final Duration UNLINK_DELAY = Duration.ofMinutes(1);
+
+    private final CloudServiceRepository repository;
+    private final FilesStorage storage;
+    private final boolean enabled;
+    private final Queue<PendingUnlink> pendingUnlinks = new ArrayDeque<>();
+
+    private long moved;
+    private long failed;
+
+    public FilesLayoutMigration(CloudServiceRepository repository, FilesStorage storage, Environment env) {
+        this.repository = repository;
+        this.storage = storage;
+        enabled = env.getProperty("files_layout_migration", Boolean.class, false);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+
+        if (storage.getLevels() == 0) {
+            log.warn("files_directory_levels is 0, there is no layout to migrate files into");
+
+            return;
+        }
+
+        Thread.ofPlatform()
+                .name("files-layout-migration")
+                .daemon()
+                .start(this::migrate);
+    }
+
+    private void migrate() {
+        try {
+            migrateFiles();
+            migrateBlobs();
+
+            while (!pendingUnlinks.isEmpty()) {
+                Thread.sleep(Duration.between(Instant.now(), pendingUnlinks.peek().getNotBefore()).plusSeconds(1));
+
+                unlinkOldPaths();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Files layout migration interrupted, old paths of {} moved files are left in place", pendingUnlinks.size());
+
+            return;
+        }
+
+        log.info("Files layout migration finished: {} files moved, {} failed", moved, failed);
+    }
+
+    private void migrateFiles() {
+        long lastId = 0;
+
+        while (true) {
+            var batch = repository.listFlatFiles(lastId, BATCH_SIZE);
+
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            for (var fileData : batch) {
+                lastId = fileData.getId();
+
+                var oldName = fileData.getLocalName();
+                var newName = storage.shardedName(oldName);
+
+                move(oldName, newName, () -> repository.moveFile(fileData.getId(), oldName, newName));
+            }
+
+            unlinkOldPaths();
+        }
+    }
+
+    private void migrateBlobs() {
+        var lastChecksum = "";
+
+        while (true) {
+            var batch = repository.listFlatBlobs(lastChecksum, BATCH_SIZE);
+
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            for (var blob : batch) {
+                lastChecksum = blob.getChecksum();
+
+                var oldName = blob.getLocalName();
+                var newName = storage.shardedName(oldName);
+
+                move(oldName, newName, () -> repository.moveBlob(blob.getChecksum(), oldName, newName));
+            }
+
+            unlinkOldPaths();
+        }
+    }
+
+    // The file is linked (not moved) under the new name, so the old name stays valid
+    // until the row is repointed and the requests which have read it are finished.
+    private void move(String oldName, String newName, BooleanSupplier repointer) {
+        var oldPath = storage.resolve(oldName);
+
+        try {
+            var newPath = storage.resolveForWriting(newName);
+
+            // May be a leftover of the interrupted previous run.
+            Files.deleteIfExists(newPath);
+
+            try {
+                Files.createLink(newPath, oldPath);
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                Files.copy(oldPath, newPath);
+            }
+
+            if (!repointer.getAsBoolean()) {
+                // Deleted or changed concurrently.
+                Files.deleteIfExists(newPath);
+
+                return;
+            }
+
+            pendingUnlinks.add(new PendingUnlink(oldPath, Instant.now().plus(UNLINK_DELAY)));
+
+            moved++;
+        } catch (IOException | RuntimeException e) {
+            failed++;
+
+            log.warn("Failed to move file {} to {}", oldName, newName, e);
+        }
+    }
+
+    private void unlinkOldPaths() {
+        var now = Instant.now();
+
+        while (!pendingUnlinks.isEmpty() && pendingUnlinks.peek().getNotBefore().isBefore(now)) {
+            var path = pendingUnlinks.poll().getPath();
+
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Failed to delete old path {}", path, e);
+            }
+        }
+    }
+
+    private static class PendingUnlink {
+        private final Path path;
+        private final Instant notBefore;
+
+        public PendingUnlink(Path path, Instant notBefore) {
+            this.path = path;
+            this.notBefore = notBefore;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public Instant getNotBefore() {
+            return notBefore;
+        }
+    }
+}
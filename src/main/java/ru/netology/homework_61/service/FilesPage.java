@@ -0,0 +1,28 @@
+package ru.netology.homework_61.service;
+
+import ru.netology.homework_61.model.FileData;
+
+import java.util.List;
+
+// Part of the files list. lastName is the name to continue after, null when the list is over.
+public class FilesPage {
+    private final List<FileData> files;
+    private final String lastName;
+
+    public FilesPage(List<FileData> files, String lastName) {
+        this.files = files;
+        this.lastName = lastName;
+    }
+
+    public List<FileData> getFiles() {
+        return files;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public boolean hasNext() {
+        return lastName != null;
+    }
+}
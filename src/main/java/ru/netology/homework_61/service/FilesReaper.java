@@ -0,0 +1,99 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.homework_61.model.DeletedFile;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.TreeSet;
+
+// Removes tombstoned content from disk in background, so requests don't wait for it and
+// a crash between the row deletion and the file removal can't leave the file behind.
+@Component
+public class FilesReaper {
+    private static final Logger log = LoggerFactory.getLogger(FilesReaper.class);
+    private static final int BATCH_SIZE = 100;
+
+    private final CloudServiceRepository repository;
+    private final FilesStorage storage;
+    private final TransactionTemplate transactions;
+    // Downloads which have read the row just before it was deleted may still open the file.
+    private final Duration deletionDelay;
+    private final Counter removedFiles;
+
+    public FilesReaper(CloudServiceRepository repository, FilesStorage storage, TransactionTemplate transactions, Environment env, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.storage = storage;
+        this.transactions = transactions;
+        deletionDelay = env.getProperty("files_deletion_delay", Duration.class, Duration.ofMinutes(1));
+        removedFiles = Counter.builder("files.reaper.removed")
+                .description("Files removed from disk after their content was deleted")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${files_reaper_interval:PT1M}")
+    public void reap() {
+        try {
+            Integer reaped;
+
+            do {
+                reaped = transactions.execute(status -> reapBatch(Instant.now().minus(deletionDelay)));
+            } while (reaped != null && reaped == BATCH_SIZE);
+        } catch (RuntimeException e) {
+            log.warn("Failed to remove deleted files", e);
+        }
+    }
+
+    private int reapBatch(Instant deletedBefore) {
+        var batch = repository.claimDeletedFiles(deletedBefore, BATCH_SIZE);
+
+        for (var deletedFile : batch) {
+            reap(deletedFile);
+        }
+
+        return batch.size();
+    }
+
+    // The name is locked until the transaction ends, so a blob acquired under the same name
+    // either is seen as a reference here or is placed after the old file is removed.
+    private void reap(DeletedFile deletedFile) {
+        var names = new TreeSet<String>();
+
+        names.add(deletedFile.getLocalName());
+
+        // A flat file may have a copy in the sharded layout, see FilesLayoutMigration.
+        if (FilesStorage.isFlat(deletedFile.getLocalName())) {
+            names.add(storage.shardedName(deletedFile.getLocalName()));
+        }
+
+        for (var name : names) {
+            repository.lockLocalName(name);
+        }
+
+        try {
+            for (var name : names) {
+                if (!repository.isLocalNameReferenced(name) && storage.remove(name)) {
+                    removedFiles.increment();
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to remove deleted file {}, will retry later", deletedFile.getLocalName(), e);
+
+            // Moved to the end of the queue.
+            deletedFile.setDeletedAt(Instant.now());
+
+            return;
+        }
+
+        repository.removeDeletedFile(deletedFile);
+    }
+}
@@ -0,0 +1,244 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Periodically compares files_directory with the database in both directions.
+// Files no row refers to get a tombstone and are removed by FilesReaper. Rows whose
+// content is missing are reported, and removed if they are still missing on the next run
+// and files_reconciliation_remove_dangling is set. Disk and database are read in batches
+// at a limited rate, so the check doesn't compete with requests.
+@Component
+public class FilesReconciler {
+    private static final Logger log = LoggerFactory.getLogger(FilesReconciler.class);
+    private static final int BATCH_SIZE = 500;
+    // Dangling rows remembered until the next run.
+    private static final int MAX_TRACKED_DANGLING = 100_000;
+
+    private final CloudServiceRepository repository;
+    private final FilesStorage storage;
+    // Files modified more recently may still be getting their rows.
+    private final Duration grace;
+    private final int rate;
+    private final boolean removeDangling;
+    private final Counter checkedFiles;
+    private final Counter checkedRows;
+    private final Counter orphanedFiles;
+    private final Counter danglingRows;
+
+    private Set<String> previousDangling = Set.of();
+
+    public FilesReconciler(CloudServiceRepository repository, FilesStorage storage, Environment env, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.storage = storage;
+        grace = env.getProperty("files_reconciliation_grace", Duration.class, Duration.ofDays(1));
+        rate = env.getProperty("files_reconciliation_rate", Integer.class, 1000);
+        removeDangling = env.getProperty("files_reconciliation_remove_dangling", Boolean.class, false);
+        checkedFiles = Counter.builder("files.reconciler.checked")
+                .tag("kind", "file")
+                .register(meterRegistry);
+        checkedRows = Counter.builder("files.reconciler.checked")
+                .tag("kind", "row")
+                .register(meterRegistry);
+        orphanedFiles = Counter.builder("files.reconciler.orphans")
+                .description("Files on disk without rows and rows without files found by the reconciler")
+                .tag("kind", "file")
+                .register(meterRegistry);
+        danglingRows = Counter.builder("files.reconciler.orphans")
+                .description("Files on disk without rows and rows without files found by the reconciler")
+                .tag("kind", "row")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${files_reconciliation_interval:P1D}", initialDelayString = "${files_reconciliation_interval:P1D}")
+    public void reconcile() {
+        var throttle = new Throttle(rate);
+
+        try {
+            var files = new FilesPass(throttle);
+
+            storage.walkStoredFiles(files::visit);
+
+            files.flush();
+
+            var dangling = new HashSet<String>();
+
+            findDanglingFiles(throttle, dangling);
+            findDanglingBlobs(throttle, dangling);
+
+            // An unmounted files_directory would make every row look dangling.
+            if (removeDangling && files.seen > 0) {
+                removeDangling(dangling);
+            }
+
+            previousDangling = dangling;
+
+            log.info("Files reconciliation finished: {} files without rows, {} rows without files", files.orphaned, dangling.size());
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Files reconciliation failed", e);
+        }
+    }
+
+    private void findDanglingFiles(Throttle throttle, Set<String> dangling) throws IOException {
+        long lastId = 0;
+
+        while (true) {
+            var batch = repository.listPrivateFiles(lastId, BATCH_SIZE);
+
+            for (var fileData : batch) {
+                lastId = fileData.getId();
+
+                acquire(throttle);
+
+                checkedRows.increment();
+
+                if (!Files.exists(storage.locate(fileData.getLocalName()))) {
+                    danglingRows.increment();
+
+                    log.warn("Content of file {} is missing: {}", fileData.getId(), fileData.getLocalName());
+
+                    track(dangling, "file:" + fileData.getId() + ":" + fileData.getLocalName());
+                }
+            }
+
+            if (batch.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private void findDanglingBlobs(Throttle throttle, Set<String> dangling) throws IOException {
+        var lastChecksum = "";
+
+        while (true) {
+            var batch = repository.listBlobs(lastChecksum, BATCH_SIZE);
+
+            for (var blob : batch) {
+                lastChecksum = blob.getChecksum();
+
+                acquire(throttle);
+
+                checkedRows.increment();
+
+                if (!Files.exists(storage.locate(blob.getLocalName()))) {
+                    danglingRows.increment();
+
+                    log.warn("Content of blob {} is missing: {}", blob.getChecksum(), blob.getLocalName());
+
+                    track(dangling, "blob:" + blob.getChecksum() + ":" + blob.getLocalName());
+                }
+            }
+
+            if (batch.size() < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    // Only rows found dangling by the previous run too are removed: a blob row is committed
+    // before its content is moved into place, so it may look dangling for a moment.
+    private void removeDangling(Set<String> dangling) {
+        var removed = 0;
+
+        for (var key : dangling) {
+            if (!previousDangling.contains(key)) {
+                continue;
+            }
+
+            var parts = key.split(":", 3);
+
+            if (parts[0].equals("file")) {
+                removed += repository.deleteDanglingFileData(Long.parseLong(parts[1]), parts[2]) ? 1 : 0;
+            } else {
+                removed += repository.deleteDanglingBlob(parts[1], parts[2]);
+            }
+        }
+
+        if (removed > 0) {
+            log.warn("Removed {} files whose content is missing", removed);
+        }
+    }
+
+    private static void track(Set<String> dangling, String key) {
+        if (dangling.size() < MAX_TRACKED_DANGLING) {
+            dangling.add(key);
+        }
+    }
+
+    private static void acquire(Throttle throttle) throws InterruptedIOException {
+        try {
+            throttle.acquire(1);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Files found on disk are looked up in the database BATCH_SIZE at a time.
+    private class FilesPass {
+        private final Throttle throttle;
+        private final Instant modifiedBefore = Instant.now().minus(grace);
+        private final List<String> batch = new ArrayList<>(BATCH_SIZE);
+
+        private long seen;
+        private long orphaned;
+
+        FilesPass(Throttle throttle) {
+            this.throttle = throttle;
+        }
+
+        void visit(String localName, BasicFileAttributes attributes) throws IOException {
+            acquire(throttle);
+
+            seen++;
+
+            checkedFiles.increment();
+
+            if (attributes.lastModifiedTime().toInstant().isBefore(modifiedBefore)) {
+                batch.add(localName);
+            }
+
+            if (batch.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            var known = new HashSet<>(repository.findKnownLocalNames(batch));
+
+            for (var localName : batch) {
+                if (!known.contains(localName)) {
+                    orphaned++;
+
+                    orphanedFiles.increment();
+
+                    repository.addDeletedFile(localName);
+                }
+            }
+
+            batch.clear();
+        }
+    }
+}
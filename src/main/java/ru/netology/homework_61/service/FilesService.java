@@ -1,91 +1,215 @@
 package ru.netology.homework_61.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.transaction.Transactional;
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.env.Environment;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 import ru.netology.homework_61.model.FileData;
 import ru.netology.homework_61.model.User;
 import ru.netology.homework_61.repository.CloudServiceRepository;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.MalformedURLException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
-import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 @Service
 public class FilesService {
-    private final CloudServiceRepository repository;
-    private final String filesDir;
-    private final Random rand;
+    private static final Logger log = LoggerFactory.getLogger(FilesService.class);
+    private static final int MAX_PAGE_SIZE = 1000;
 
-    public FilesService(CloudServiceRepository repository, Environment env) {
+    private final CloudServiceRepository repository;
+    private final FilesStorage storage;
+    private final AccessTokenCache tokenCache;
+    private final HotFilesCache hotFilesCache;
+    private final TransactionTemplate transactions;
+    // Bytes a user may store, 0 if not limited.
+    private final long quota;
+    private final Timer uploadTimer;
+    private final Timer lockWaitTimer;
+    private final DistributionSummary uploadedBytes;
+    private final DistributionSummary downloadedBytes;
+
+    public FilesService(CloudServiceRepository repository, FilesStorage storage, AccessTokenCache tokenCache, HotFilesCache hotFilesCache, TransactionTemplate transactions, Environment env, MeterRegistry meterRegistry) {
         this.repository = repository;
-        filesDir = env.getProperty("files_directory", ".");
-        rand = new Random();
+        this.storage = storage;
+        this.tokenCache = tokenCache;
+        this.hotFilesCache = hotFilesCache;
+        this.transactions = transactions;
+        quota = env.getProperty("user_quota", DataSize.class, DataSize.ofBytes(0)).toBytes();
+        uploadTimer = Timer.builder("files.upload")
+                .description("Time of storing an uploaded file, from the first received byte to the saved record")
+                .register(meterRegistry);
+        lockWaitTimer = Timer.builder("files.lock.wait")
+                .description("Time an upload waits for the lock of the file name before replacing the file")
+                .register(meterRegistry);
+        uploadedBytes = DistributionSummary.builder("files.upload.size")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        downloadedBytes = DistributionSummary.builder("files.download.size")
+                .description("Content bytes sent in a download response")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public void uploadFile(String authToken, String fileName, MultipartFile file) throws IOException, AuthorizationException, QuotaExceededException {
+        try (var receivedFile = file.getInputStream()) {
+            uploadFile(authToken, fileName, receivedFile, file.getSize());
+        }
+    }
+
+    public void uploadFile(String authToken, String fileName, InputStream content) throws IOException, AuthorizationException, QuotaExceededException {
+        uploadFile(authToken, fileName, content, -1);
     }
 
-    public void uploadFile(String authToken, String fileName, MultipartFile file) throws IOException, AuthorizationException {
+    // expectedSize is an upper bound of the content size (e.g. Content-Length of the request), -1 if unknown.
+    // An upload which can't fit into the quota is rejected before anything is written.
+    public void uploadFile(String authToken, String fileName, InputStream content, long expectedSize) throws IOException, AuthorizationException, QuotaExceededException {
         var user = findUserIdByAccessToken(authToken);
 
         if (user.isEmpty()) {
             throw new AuthorizationException();
         }
 
-        var existingFileDataFromDB = repository.getFileData(user.get(), fileName);
+        checkQuota(user.get(), fileName, expectedSize);
 
-        var fileExists = existingFileDataFromDB.isPresent();
+        var sample = Timer.start();
 
-        if (fileExists) {
-            var existingFileData = existingFileDataFromDB.get();
+        var storedFile = storage.store(content, fileName);
 
-            Files.delete(Path.of(filesDir, existingFileData.getLocalName()));
+        saveStoredFile(user.get(), fileName, storedFile);
 
-            repository.deleteFileData(existingFileData.getUser(), existingFileData.getName());
+        sample.stop(uploadTimer);
+
+        uploadedBytes.record(storedFile.getSize());
+    }
+
+    // Registers stored content as user's file, replacing the existing file with the same name.
+    void saveStoredFile(User user, String fileName, StoredFile storedFile) throws IOException, QuotaExceededException {
+        boolean saved;
+
+        try {
+            try {
+                saved = transactions.execute(status -> replaceFileData(user, fileName, storedFile));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } catch (Throwable e) {
+            try {
+                storage.discard(storedFile);
+            } catch (IOException discardError) {
+                e.addSuppressed(discardError);
+            }
+
+            throw e;
         }
 
-        String extension = null;
+        if (!saved) {
+            storage.discard(storedFile);
 
-        var extensionOfGivenName = extractExtension(fileName);
+            throw new QuotaExceededException(quota);
+        }
 
-        if (extensionOfGivenName.isPresent()) {
-            extension = extensionOfGivenName.get();
+        // Staged content of a blob which had its content already.
+        if (storedFile.isStaged()) {
+            storage.discard(storedFile);
         }
+    }
+
+    // Runs in one transaction holding the lock of the file name, so concurrent uploads of the same
+    // file, on any instance, replace it one after another. Uploads of other files don't wait.
+    // A blob gets its reference in the same transaction. Returns false if the file doesn't fit into the quota.
+    // Locks are taken in the order every other change of files uses: the name, the file's row,
+    // the user's row, then blobs, so an upload can't deadlock with a batch or a copy.
+    private boolean replaceFileData(User user, String fileName, StoredFile storedFile) {
+        var lockWait = Timer.start();
+
+        repository.lockFileName(user, fileName);
+
+        lockWait.stop(lockWaitTimer);
 
-        var localName = generateLocalFileName(extension);
+        var existingFileDataFromDB = repository.lockFilesData(user, List.of(fileName)).stream().findFirst();
 
-        var filePath = Path.of(filesDir, localName);
+        // Concurrent uploads of the user are checked against the quota one after another.
+        var usedBytes = repository.lockUsedBytes(user);
 
-        String hash;
+        if (quota > 0) {
+            var replacedSize = existingFileDataFromDB.map(FileData::getSize).orElse(0L);
 
-        try (
-                var localFile = new FileOutputStream(filePath.toFile());
-                var receivedFile = file.getInputStream()
-        ) {
-            hash = calculateChecksumAndCopy(localFile, receivedFile);
+            if (usedBytes - replacedSize + storedFile.getSize() > quota) {
+                return false;
+            }
+        }
+
+        // Replaced content is removed from disk later by FilesReaper.
+        if (existingFileDataFromDB.isPresent()) {
+            var existingFileData = existingFileDataFromDB.get();
+
+            repository.deleteFileData(existingFileData.getUser(), existingFileData.getName());
+
+            hotFilesCache.invalidate(existingFileData.getLocalName());
         }
 
         try {
-            repository.saveFileData(
-                    new FileData(user.get(), fileName, localName, hash, file.getSize())
-            );
-        } catch (Throwable e) {
-            filePath.toFile().delete();
+            repository.saveFileData(storage.placeBlob(storedFile).toFileData(user, fileName));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-            throw e;
+        return true;
+    }
+
+    // Checks that a file of the given size (-1 if unknown) fits into the quota, taking the place of
+    // the user's file with the same name if there is one. Only rejects early what can't fit
+    // without locking anything, replaceFileData checks again under the lock of the user's row.
+    void checkQuota(User user, String fileName, long size) throws QuotaExceededException {
+        if (quota <= 0) {
+            return;
+        }
+
+        var usedBytes = repository.getUsedBytes(user);
+
+        if (fitsQuota(usedBytes, size)) {
+            return;
+        }
+
+        var replacedSize = repository.getFileData(user, fileName).map(FileData::getSize).orElse(0L);
+
+        if (!fitsQuota(usedBytes - replacedSize, size)) {
+            throw new QuotaExceededException(quota);
+        }
+    }
+
+    private boolean fitsQuota(long usedBytes, long size) {
+        // Content of unknown size is checked once it is stored.
+        return size < 0 ? usedBytes < quota : usedBytes + size <= quota;
+    }
+
+    public StorageUsage getUsage(String authToken) throws AuthorizationException {
+        var user = findUserIdByAccessToken(authToken);
+
+        if (user.isEmpty()) {
+            throw new AuthorizationException();
         }
+
+        return new StorageUsage(repository.getUsedBytes(user.get()), quota);
     }
 
     public void deleteFile(String authToken, String fileName) throws IOException, AuthorizationException, FileNotFoundException {
@@ -101,15 +225,30 @@ public class FilesService {
             throw new FileNotFoundException(fileName);
         }
 
-        if (repository.deleteFileData(user.get(), fileName)) {
-            Files.delete(Path.of(filesDir, fileData.get().getLocalName()));
-        } else {
-            // File was deleted by other request (erasing file in transaction is too slow).
+        // Content is removed from disk later by FilesReaper.
+        if (!repository.deleteFileData(user.get(), fileName)) {
+            // File was deleted by other request.
             throw new FileNotFoundException(fileName);
         }
+
+        hotFilesCache.invalidate(fileData.get().getLocalName());
+    }
+
+    public Resource downloadFile(String authToken, String fileName) throws AuthorizationException, FileNotFoundException {
+        var file = findFileForDownload(authToken, fileName);
+
+        downloadedBytes.record(file.getFileData().getSize());
+
+        return file.toDecodedResource();
+    }
+
+    public void recordDownloadedBytes(long bytes) {
+        downloadedBytes.record(bytes);
     }
 
-    public UrlResource downloadFile(String authToken, String fileName) throws AuthorizationException, FileNotFoundException {
+    // Nothing is recorded as downloaded: the caller may answer without the content,
+    // or send a part of it, see recordDownloadedBytes.
+    public DownloadableFile findFileForDownload(String authToken, String fileName) throws AuthorizationException, FileNotFoundException {
         var user = findUserIdByAccessToken(authToken);
 
         if (user.isEmpty()) {
@@ -124,13 +263,7 @@ public class FilesService {
 
         var fileData = fileDataFromDb.get();
 
-        var filePath = Path.of(filesDir, fileData.getLocalName());
-
-        try {
-            return new UrlResourceWithSpecifiedFilename(filePath.toFile().toURI(), fileData.getName());
-        } catch (MalformedURLException e) {
-            throw new RuntimeException(e);
-        }
+        return new DownloadableFile(fileData, () -> storage.locate(fileData.getLocalName()), hotFilesCache);
     }
 
     @Transactional
@@ -157,67 +290,325 @@ public class FilesService {
 
         var fileData = fileDataFromDB.get();
 
+        // The content keeps its local name, so its cached copy stays valid.
         fileData.setName(newFileName);
 
         repository.saveFileData(fileData);
     }
 
-    public List<FileData> getAllFiles(String authToken, int limit) throws AuthorizationException {
+    // The copy shares the checksum and the size of the file, its content isn't read:
+    // a blob gets one more reference, privately stored content is hard linked.
+    @Transactional(rollbackOn = IOException.class)
+    public void copyFile(String authToken, String fileName, String newFileName) throws IOException, AuthorizationException, FileNotFoundException, FileAlreadyExistsException, QuotaExceededException {
+        var userFromDb = findUserIdByAccessToken(authToken);
+
+        if (userFromDb.isEmpty()) {
+            throw new AuthorizationException();
+        }
+
+        var user = userFromDb.get();
+
+        // Same lock as uploads of the new name take: the name can't be taken by an upload meanwhile.
+        repository.lockFileName(user, newFileName);
+
+        FileData fileData = null;
+
+        // The source is locked, so it can't be deleted and its blob can't lose the last reference meanwhile.
+        for (var locked : repository.lockFilesData(user, List.of(fileName, newFileName))) {
+            if (locked.getName().equals(newFileName)) {
+                throw new FileAlreadyExistsException(newFileName);
+            }
+
+            fileData = locked;
+        }
+
+        if (fileData == null) {
+            throw new FileNotFoundException(fileName);
+        }
+
+        // The user's row is locked until the copy is saved, so concurrent copies can't overshoot the quota together.
+        if (quota > 0 && !fitsQuota(repository.lockUsedBytes(user), fileData.getSize())) {
+            throw new QuotaExceededException(quota);
+        }
+
+        var copiesCleanup = new CopiesCleanup();
+
+        TransactionSynchronizationManager.registerSynchronization(copiesCleanup);
+
+        var copy = copyFileData(fileData, newFileName);
+
+        if (copy.getBlobChecksum() == null) {
+            copiesCleanup.copiedFiles.add(copy);
+        } else {
+            repository.changeBlobReferences(copy.getBlobChecksum(), 1);
+        }
+
+        repository.saveFileData(copy);
+    }
+
+    // Archive of the named files, or of all files of the user if no names are given.
+    public FilesArchive prepareArchive(String authToken, List<String> fileNames) throws AuthorizationException {
         var user = findUserIdByAccessToken(authToken);
 
         if (user.isEmpty()) {
             throw new AuthorizationException();
         }
 
-        return repository.listFilesByUser(user.get(), limit);
+        return new FilesArchive(repository, storage, user.get(), fileNames == null || fileNames.isEmpty() ? null : fileNames);
     }
 
-    private Optional<User> findUserIdByAccessToken(String authToken) {
-        if (authToken.startsWith("Bearer ")) {
-            authToken = authToken.replaceFirst("Bearer ", "");
+    // Applies operations in order in one transaction, row changes are sent in JDBC batches on commit.
+    // An operation which can't be applied is reported in its result and doesn't affect the others.
+    @Transactional(rollbackOn = IOException.class)
+    public List<FileOperationResult> applyOperations(String authToken, List<FileOperation> operations) throws IOException, AuthorizationException {
+        var userFromDb = findUserIdByAccessToken(authToken);
+
+        if (userFromDb.isEmpty()) {
+            throw new AuthorizationException();
         }
 
-        return repository.findUserIdByAccessToken(authToken);
-    }
+        var user = userFromDb.get();
+
+        var names = new HashSet<String>();
+        var newNames = new TreeSet<String>();
+
+        for (var operation : operations) {
+            if (operation.getFileName() != null) {
+                names.add(operation.getFileName());
+            }
+
+            if (operation.getNewFileName() != null) {
+                names.add(operation.getNewFileName());
+                newNames.add(operation.getNewFileName());
+            }
+        }
+
+        // Names a file is renamed or copied to are locked as an upload of them would be, so a concurrent
+        // upload can't take one after it is checked. Sorted, so concurrent batches can't deadlock on them.
+        for (var newName : newNames) {
+            repository.lockFileName(user, newName);
+        }
 
-    private static String calculateChecksumAndCopy(OutputStream dest, InputStream src) throws IOException {
-        try (
-                var inputStreamForCalculation = new DigestInputStream(
-                        src,
-                        MessageDigest.getInstance("SHA-256")
-                );
-        ) {
-            inputStreamForCalculation.transferTo(dest);
+        var files = new HashMap<String, FileData>();
 
-            var hashCalcObject = inputStreamForCalculation.getMessageDigest();
+        for (var fileData : repository.lockFilesData(user, names)) {
+            files.put(fileData.getName(), fileData);
+        }
+
+        var copiesCleanup = new CopiesCleanup();
+
+        TransactionSynchronizationManager.registerSynchronization(copiesCleanup);
+
+        // Hibernate flushes inserts before updates and deletes, so a name freed earlier
+        // in the batch must be flushed before it is taken again, or the unique key fails.
+        var freedNames = new HashSet<String>();
+        var blobReferences = new TreeMap<String, Long>();
+        var usedBytes = quota > 0 ? repository.lockUsedBytes(user) : 0;
+        long usedBytesDelta = 0;
+        var results = new ArrayList<FileOperationResult>(operations.size());
+
+        for (var operation : operations) {
+            var fileName = operation.getFileName();
+            var newFileName = operation.getNewFileName();
+
+            var invalid = operation.getType() == null
+                    || fileName == null
+                    || (operation.getType() != FileOperation.Type.DELETE && newFileName == null);
 
-            var hash = hashCalcObject.digest();
+            if (invalid) {
+                results.add(new FileOperationResult(fileName, FileOperationResult.Status.INVALID));
 
-            StringBuilder res = new StringBuilder(hash.length);
+                continue;
+            }
+
+            var fileData = files.get(fileName);
+
+            if (fileData == null) {
+                results.add(new FileOperationResult(fileName, FileOperationResult.Status.FILE_NOT_FOUND));
 
-            for (byte b : hash) {
-                res.append(String.format("%02x", b));
+                continue;
             }
 
-            return res.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+            if (operation.getType() == FileOperation.Type.DELETE) {
+                repository.removeFileData(fileData);
+
+                files.remove(fileName);
+                freedNames.add(fileName);
+                usedBytesDelta -= fileData.getSize();
+
+                hotFilesCache.invalidate(fileData.getLocalName());
+
+                if (fileData.getBlobChecksum() == null) {
+                    repository.addDeletedFile(fileData.getLocalName());
+                } else {
+                    blobReferences.merge(fileData.getBlobChecksum(), -1L, Long::sum);
+                }
+
+                results.add(new FileOperationResult(fileName, FileOperationResult.Status.OK));
+
+                continue;
+            }
+
+            if (files.containsKey(newFileName)) {
+                results.add(new FileOperationResult(fileName, FileOperationResult.Status.FILE_ALREADY_EXISTS));
+
+                continue;
+            }
+
+            if (freedNames.contains(newFileName)) {
+                repository.flush();
+
+                freedNames.clear();
+            }
+
+            if (operation.getType() == FileOperation.Type.RENAME) {
+                fileData.setName(newFileName);
+
+                files.remove(fileName);
+                files.put(newFileName, fileData);
+                freedNames.add(fileName);
+            } else {
+                if (quota > 0 && usedBytes + usedBytesDelta + fileData.getSize() > quota) {
+                    results.add(new FileOperationResult(fileName, FileOperationResult.Status.QUOTA_EXCEEDED));
+
+                    continue;
+                }
+
+                var copy = copyFileData(fileData, newFileName);
+
+                if (copy.getBlobChecksum() == null) {
+                    copiesCleanup.copiedFiles.add(copy);
+                } else {
+                    blobReferences.merge(copy.getBlobChecksum(), 1L, Long::sum);
+                }
+
+                repository.addFileData(copy);
+
+                files.put(newFileName, copy);
+                usedBytesDelta += copy.getSize();
+            }
+
+            results.add(new FileOperationResult(fileName, FileOperationResult.Status.OK));
         }
+
+        // The user's row is locked before blobs, as uploads lock it.
+        repository.changeUsedBytes(user, usedBytesDelta);
+
+        // Blobs are locked in checksum order, so concurrent batches can't deadlock on them.
+        // The source file of a copy is locked, so the copied blob can't lose its last reference meanwhile.
+        for (var change : blobReferences.entrySet()) {
+            if (change.getValue() != 0) {
+                repository.changeBlobReferences(change.getKey(), change.getValue());
+            }
+        }
+
+        return results;
     }
 
-    private static Optional<String> extractExtension(String fileName) {
-        try {
-            var extension = FilenameUtils.getExtension(fileName);
+    private FileData copyFileData(FileData fileData, String newFileName) throws IOException {
+        var localName = fileData.getBlobChecksum() == null
+                ? storage.copyPrivateFile(fileData)
+                : fileData.getLocalName();
 
-            return extension.isEmpty() ? Optional.empty() : Optional.of(extension);
-        } catch (Throwable e) {
-            return Optional.empty();
+        var res = new FileData(fileData.getUser(), newFileName, localName, fileData.getChecksum(), fileData.getSize());
+
+        res.setChecksumAlgorithm(fileData.getChecksumAlgorithm());
+        res.setBlobChecksum(fileData.getBlobChecksum());
+        res.setContentEncoding(fileData.getContentEncoding());
+        res.setUploadedAt(Instant.now());
+
+        return res;
+    }
+
+    public List<FileData> getAllFiles(String authToken, int limit) throws AuthorizationException {
+        return getFilesPage(authToken, null, limit).getFiles();
+    }
+
+    // Page of files ordered by name which follows the file named afterName.
+    public FilesPage getFilesPage(String authToken, String afterName, int limit) throws AuthorizationException {
+        var user = findUserIdByAccessToken(authToken);
+
+        if (user.isEmpty()) {
+            throw new AuthorizationException();
+        }
+
+        if (limit <= 0) {
+            return new FilesPage(List.of(), null);
+        }
+
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+
+        // One extra row tells whether there is a next page.
+        return toPage(repository.listFilesByUser(user.get(), afterName, limit + 1), limit);
+    }
+
+    // Page of files whose names match the query, ordered and paginated like getFilesPage.
+    public FilesPage searchFiles(String authToken, String searchQuery, SearchMode mode, String afterName, int limit) throws AuthorizationException {
+        var user = findUserIdByAccessToken(authToken);
+
+        if (user.isEmpty()) {
+            throw new AuthorizationException();
+        }
+
+        if (limit <= 0) {
+            return new FilesPage(List.of(), null);
+        }
+
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+
+        var files = repository.searchFilesByUser(user.get(), likePattern(searchQuery, mode), afterName, limit + 1);
+
+        return toPage(files, limit);
+    }
+
+    static String likePattern(String searchQuery, SearchMode mode) {
+        if (mode == SearchMode.EXTENSION && searchQuery.startsWith(".")) {
+            searchQuery = searchQuery.substring(1);
         }
+
+        var escaped = searchQuery
+                .replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_");
+
+        return switch (mode) {
+            case CONTAINS -> "%" + escaped + "%";
+            case PREFIX -> escaped + "%";
+            case EXTENSION -> "%." + escaped;
+        };
     }
 
-    private String generateLocalFileName(String extension) {
-        var name = RandomStringUtils.random(100, 0, 0, true, true, null, rand);
+    private static FilesPage toPage(List<FileData> files, int limit) {
+        if (files.size() <= limit) {
+            return new FilesPage(files, null);
+        }
 
-        return extension == null || extension.isEmpty() ? name : name + "." + extension;
+        files = files.subList(0, limit);
+
+        return new FilesPage(files, files.get(limit - 1).getName());
+    }
+
+    private Optional<User> findUserIdByAccessToken(String authToken) {
+        return tokenCache.findUserByAccessToken(authToken);
+    }
+
+    // Removes the content of privately stored copies if the batch is rolled back.
+    private class CopiesCleanup implements TransactionSynchronization {
+        private final List<FileData> copiedFiles = new ArrayList<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED) {
+                return;
+            }
+
+            for (var fileData : copiedFiles) {
+                try {
+                    storage.release(fileData);
+                } catch (IOException e) {
+                    log.warn("Failed to remove file {}", fileData.getLocalName(), e);
+                }
+            }
+        }
     }
 }
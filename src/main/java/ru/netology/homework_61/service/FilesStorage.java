@@ -0,0 +1,512 @@
+package ru.netology.homework_61.service;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Keeps files content in files_directory. With files_deduplication enabled content is
+// stored once per checksum and shared between files through reference counted blobs.
+// With files_compression enabled compressible content is stored gzipped.
+@Component
+public class FilesStorage {
+    // Uploads are written here first when the final name depends on the content.
+    private static final String STAGING_DIR = ".staging";
+    // Resumable upload sessions keep received bytes here.
+    private static final String UPLOADS_DIR = ".uploads";
+    // Each level is named by two hex digits, so it has up to 256 subdirectories.
+    private static final int MAX_LEVELS = 4;
+
+    private final CloudServiceRepository repository;
+    private final Path filesDir;
+    private final boolean deduplication;
+    private final int levels;
+    private final boolean compression;
+    private final int compressionLevel;
+    private final ChecksumEngine checksumEngine;
+
+    public FilesStorage(CloudServiceRepository repository, Environment env, ChecksumEngine checksumEngine) {
+        this.repository = repository;
+        filesDir = Path.of(env.getProperty("files_directory", "."));
+        deduplication = env.getProperty("files_deduplication", Boolean.class, false);
+        levels = Math.min(env.getProperty("files_directory_levels", Integer.class, 2), MAX_LEVELS);
+        compression = env.getProperty("files_compression", Boolean.class, false);
+        compressionLevel = env.getProperty("files_compression_level", Integer.class, Deflater.BEST_SPEED);
+        this.checksumEngine = checksumEngine;
+
+        // Blobs are identified by the checksum, it must not collide.
+        if (deduplication && !checksumEngine.getAlgorithm().isCryptographic()) {
+            throw new IllegalStateException(
+                    "files_deduplication requires a cryptographic checksum_algorithm, got " + checksumEngine.getAlgorithm().getName()
+            );
+        }
+    }
+
+    public Path resolve(String localName) {
+        return filesDir.resolve(localName);
+    }
+
+    int getLevels() {
+        return levels;
+    }
+
+    // Name of the file under files_directory_levels levels of prefix directories,
+    // e.g. "3f/a1/name" for two levels. Prefixes are taken from CRC32 of the name,
+    // so names with a common beginning (blob checksums) still spread evenly.
+    String shardedName(String name) {
+        if (levels == 0) {
+            return name;
+        }
+
+        var crc = new CRC32();
+
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+
+        var prefix = String.format("%08x", crc.getValue());
+
+        var res = new StringBuilder(levels * 3 + name.length());
+
+        for (var i = 0; i < levels; i++) {
+            res.append(prefix, i * 2, i * 2 + 2).append('/');
+        }
+
+        return res.append(name).toString();
+    }
+
+    // Path of the stored file. Files in the flat layout may have been moved into prefix
+    // directories after their row was read, so the sharded name is checked for them as well.
+    public Path locate(String localName) {
+        var path = resolve(localName);
+
+        if (levels == 0 || !isFlat(localName) || Files.exists(path)) {
+            return path;
+        }
+
+        var shardedPath = resolve(shardedName(localName));
+
+        return Files.exists(shardedPath) ? shardedPath : path;
+    }
+
+    static boolean isFlat(String localName) {
+        return localName.indexOf('/') < 0;
+    }
+
+    // Path for a new file, its prefix directories are created if necessary.
+    Path resolveForWriting(String localName) throws IOException {
+        var path = resolve(localName);
+
+        Files.createDirectories(path.getParent());
+
+        return path;
+    }
+
+    // Writes content to the storage calculating its checksum on the fly.
+    StoredFile store(InputStream content, String fileName) throws IOException {
+        var extension = extractExtension(fileName).orElse(null);
+
+        var input = new PushbackInputStream(content, ContentCompression.SNIFF_SIZE);
+
+        var encoding = chooseEncoding(extension, ContentCompression.sniff(input));
+
+        if (deduplication) {
+            return storeAsBlob(input, encoding);
+        }
+
+        var localName = shardedName(generateLocalFileName(extension));
+
+        var filePath = resolveForWriting(localName);
+
+        WrittenContent written;
+
+        try {
+            written = write(input, filePath, encoding);
+        } catch (Throwable e) {
+            Files.deleteIfExists(filePath);
+
+            throw e;
+        }
+
+        return new StoredFile(localName, written.checksum, checksumEngine.getAlgorithm(), written.size, null, encoding);
+    }
+
+    // Removes content stored for a file which was never saved. Shared blobs lose
+    // a reference and are left to FilesReaper when it was the last one.
+    void release(FileData fileData) throws IOException {
+        if (fileData.getBlobChecksum() == null) {
+            deleteFile(fileData.getLocalName());
+
+            return;
+        }
+
+        repository.releaseBlob(fileData.getBlobChecksum());
+    }
+
+    // Removes stored content which wasn't registered as a file. A staged blob holds no reference yet.
+    void discard(StoredFile storedFile) throws IOException {
+        if (storedFile.isStaged()) {
+            Files.deleteIfExists(storedFile.getStagedPath());
+
+            return;
+        }
+
+        deleteFile(storedFile.getLocalName());
+    }
+
+    // Copies the content of a privately stored file under a new local name. Stored content
+    // never changes and is removed by name, so the copy is a hard link to the same inode
+    // where the file system has them. Otherwise the bytes are copied within the kernel.
+    String copyPrivateFile(FileData fileData) throws IOException {
+        var extension = extractExtension(fileData.getName()).orElse(null);
+
+        var localName = shardedName(generateLocalFileName(extension));
+
+        var source = locate(fileData.getLocalName());
+        var target = resolveForWriting(localName);
+
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // The service has its own FileAlreadyExistsException.
+            if (e instanceof java.nio.file.FileAlreadyExistsException || e instanceof NoSuchFileException) {
+                throw e;
+            }
+
+            transfer(source, target);
+        }
+
+        return localName;
+    }
+
+    // Takes a complete file written elsewhere in files_directory into the storage.
+    // The file is moved, so it has to be on the same file system.
+    StoredFile adopt(Path file, String fileName) throws IOException {
+        var extension = extractExtension(fileName).orElse(null);
+
+        String encoding;
+
+        try (var content = Files.newInputStream(file)) {
+            encoding = chooseEncoding(extension, content.readNBytes(ContentCompression.SNIFF_SIZE));
+        }
+
+        if (encoding != null) {
+            return adoptCompressed(file, extension, encoding);
+        }
+
+        String hash;
+
+        try (var content = Files.newInputStream(file)) {
+            hash = checksumEngine.copy(content, OutputStream.nullOutputStream());
+        }
+
+        var size = Files.size(file);
+
+        if (deduplication) {
+            var stagedPath = createStagingFile();
+
+            Files.move(file, stagedPath, StandardCopyOption.ATOMIC_MOVE);
+
+            return stageBlob(stagedPath, hash, size, null);
+        }
+
+        var localName = shardedName(generateLocalFileName(extension));
+
+        Files.move(file, resolveForWriting(localName), StandardCopyOption.ATOMIC_MOVE);
+
+        return new StoredFile(localName, hash, checksumEngine.getAlgorithm(), size, null, null);
+    }
+
+    // Staging file which keeps bytes received by resumable upload session.
+    Path uploadSessionPath(String sessionId) throws IOException {
+        var uploadsDir = filesDir.resolve(UPLOADS_DIR);
+
+        Files.createDirectories(uploadsDir);
+
+        return uploadsDir.resolve(sessionId);
+    }
+
+    // File next to the upload session's file, a received chunk or the content being committed.
+    Path uploadChunkPath(String sessionId) throws IOException {
+        return uploadSessionPath(sessionId + "." + generateLocalFileName(null));
+    }
+
+    // Second link to the upload session's file, which can be adopted while the session's file stays
+    // in place until the commit succeeds. The content is copied where hard links aren't supported.
+    Path linkUploadFile(String sessionId) throws IOException {
+        var source = uploadSessionPath(sessionId);
+        var link = uploadChunkPath(sessionId);
+
+        try {
+            Files.createLink(link, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (e instanceof NoSuchFileException) {
+                throw e;
+            }
+
+            transfer(source, link);
+        }
+
+        return link;
+    }
+
+    // Removes staging files of upload sessions which were not touched since the given moment.
+    int removeStaleUploadFiles(Instant modifiedBefore) throws IOException {
+        var uploadsDir = filesDir.resolve(UPLOADS_DIR);
+
+        if (!Files.isDirectory(uploadsDir)) {
+            return 0;
+        }
+
+        var removed = 0;
+
+        try (var files = Files.newDirectoryStream(uploadsDir)) {
+            for (var file : files) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(modifiedBefore) && Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    // The file is compressed into a new one in a single pass with hashing, the original is removed.
+    private StoredFile adoptCompressed(Path file, String extension, String encoding) throws IOException {
+        var localName = shardedName(generateLocalFileName(extension));
+
+        var target = deduplication ? createStagingFile() : resolveForWriting(localName);
+
+        WrittenContent written;
+
+        try (var content = Files.newInputStream(file)) {
+            written = write(content, target, encoding);
+        } catch (Throwable e) {
+            Files.deleteIfExists(target);
+
+            throw e;
+        }
+
+        Files.delete(file);
+
+        if (deduplication) {
+            return stageBlob(target, written.checksum, written.size, encoding);
+        }
+
+        return new StoredFile(localName, written.checksum, checksumEngine.getAlgorithm(), written.size, null, encoding);
+    }
+
+    private StoredFile storeAsBlob(InputStream content, String encoding) throws IOException {
+        var stagedPath = createStagingFile();
+
+        try {
+            var written = write(content, stagedPath, encoding);
+
+            return stageBlob(stagedPath, written.checksum, written.size, encoding);
+        } catch (Throwable e) {
+            Files.deleteIfExists(stagedPath);
+
+            throw e;
+        }
+    }
+
+    // size is the size of the content before encoding.
+    private StoredFile stageBlob(Path stagedPath, String hash, long size, String encoding) {
+        return new StoredFile(shardedName(hash), hash, checksumEngine.getAlgorithm(), size, hash, encoding, stagedPath);
+    }
+
+    // Takes a reference to the blob of staged content, moving the staged copy into place if the blob
+    // has no content yet. Must run in the transaction which saves the file holding the reference,
+    // so the reference can't outlive a file which failed to be saved. The staged copy is left
+    // for discard if the blob already has its content.
+    StoredFile placeBlob(StoredFile storedFile) throws IOException {
+        if (!storedFile.isStaged()) {
+            return storedFile;
+        }
+
+        var hash = storedFile.getBlobChecksum();
+
+        var blob = repository.acquireBlob(hash, storedFile.getLocalName(), storedFile.getSize(), storedFile.getContentEncoding());
+
+        var blobPath = resolveForWriting(blob.getLocalName());
+
+        // The blob may be missing even if it is referenced already: other request
+        // with the same content may still be moving its copy into place. Only a copy
+        // with the encoding recorded for the blob may take its place.
+        var placeStagedCopy = blob.getRefCount() == 1
+                || (!Files.exists(blobPath) && Objects.equals(storedFile.getContentEncoding(), blob.getContentEncoding()));
+
+        // A copy moved into place by a transaction which is then rolled back is left to FilesReconciler.
+        if (placeStagedCopy) {
+            Files.move(storedFile.getStagedPath(), blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        return new StoredFile(blob.getLocalName(), hash, checksumEngine.getAlgorithm(), blob.getSize(), hash, blob.getContentEncoding(), storedFile.getStagedPath());
+    }
+
+    private WrittenContent write(InputStream content, Path path, String encoding) throws IOException {
+        try (var file = new FileOutputStream(path.toFile())) {
+            if (encoding == null) {
+                var hash = checksumEngine.copy(content, file);
+
+                return new WrittenContent(hash, file.getChannel().position());
+            }
+
+            try (var compressed = new ContentCompression.GzipWriter(file, compressionLevel)) {
+                var hash = checksumEngine.copy(content, compressed);
+
+                compressed.finish();
+
+                return new WrittenContent(hash, compressed.getContentSize());
+            }
+        }
+    }
+
+    private String chooseEncoding(String extension, byte[] head) {
+        return compression && ContentCompression.isCompressible(extension, head) ? ContentCompression.GZIP : null;
+    }
+
+    private Path createStagingFile() throws IOException {
+        var stagingDir = filesDir.resolve(STAGING_DIR);
+
+        Files.createDirectories(stagingDir);
+
+        return stagingDir.resolve(generateLocalFileName(null));
+    }
+
+    // File to file transferTo is done by copy_file_range(2) or sendfile(2) on Linux,
+    // the bytes don't pass through the JVM.
+    private static void transfer(Path source, Path target) throws IOException {
+        try (
+                var in = FileChannel.open(source, StandardOpenOption.READ);
+                var out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+        ) {
+            var size = in.size();
+            long position = 0;
+
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (Throwable e) {
+            Files.deleteIfExists(target);
+
+            throw e;
+        }
+    }
+
+    boolean remove(String localName) throws IOException {
+        return Files.deleteIfExists(resolve(localName));
+    }
+
+    // Calls visitor with the local name and attributes of every stored file.
+    // Staging and upload directories are skipped.
+    void walkStoredFiles(StoredFileVisitor visitor) throws IOException {
+        Files.walkFileTree(filesDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                var name = dir.getFileName().toString();
+
+                if (!dir.equals(filesDir) && (name.startsWith(".") || name.equals("lost+found"))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    visitor.visit(localNameOf(file), attrs);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String localNameOf(Path file) {
+        var relative = filesDir.relativize(file);
+
+        var res = new StringBuilder();
+
+        for (var element : relative) {
+            if (!res.isEmpty()) {
+                res.append('/');
+            }
+
+            res.append(element);
+        }
+
+        return res.toString();
+    }
+
+    // A flat file may be linked into the sharded layout by FilesLayoutMigration concurrently,
+    // so its sharded copy is removed too. Either of them may be gone already.
+    private void deleteFile(String localName) throws IOException {
+        if (!isFlat(localName) || levels == 0) {
+            Files.delete(resolve(localName));
+
+            return;
+        }
+
+        var shardedCopyDeleted = Files.deleteIfExists(resolve(shardedName(localName)));
+
+        if (!Files.deleteIfExists(resolve(localName)) && !shardedCopyDeleted) {
+            throw new NoSuchFileException(resolve(localName).toString());
+        }
+    }
+
+    static Optional<String> extractExtension(String fileName) {
+        try {
+            var extension = FilenameUtils.getExtension(fileName);
+
+            return extension.isEmpty() ? Optional.empty() : Optional.of(extension);
+        } catch (Throwable e) {
+            return Optional.empty();
+        }
+    }
+
+    String generateLocalFileName(String extension) {
+        var name = RandomStringUtils.random(100, 0, 0, true, true, null, ThreadLocalRandom.current());
+
+        return extension == null || extension.isEmpty() ? name : name + "." + extension;
+    }
+
+    @FunctionalInterface
+    interface StoredFileVisitor {
+        void visit(String localName, BasicFileAttributes attributes) throws IOException;
+    }
+
+    private static class WrittenContent {
+        private final String checksum;
+        private final long size;
+
+        private WrittenContent(String checksum, long size) {
+            this.checksum = checksum;
+            this.size = size;
+        }
+    }
+}
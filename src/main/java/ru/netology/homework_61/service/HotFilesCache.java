@@ -0,0 +1,452 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Stored content of small files, kept in one direct buffer allocated on first use,
+// so cached bytes are neither on the heap nor scanned by GC. The buffer is split into
+// blocks, an entry takes as many as its file needs. Entries are keyed by local name:
+// the content under a local name never changes, invalidation only frees the space.
+// A file is admitted on its second miss within the recent ones, so files downloaded
+// once don't push out the frequently downloaded ones. The least recently used entries
+// are evicted; an entry being read is freed when its last stream is closed.
+@Component
+public class HotFilesCache implements MeterBinder {
+    private static final int BLOCK_SIZE = 4096;
+
+    private final int blockCount;
+    private final long maxFileSize;
+    // Guards entries, doorkeeper, pins and removed flags of the entries, and the free blocks.
+    // It is never held while a file is read: blocks taken by load are owned by its thread until
+    // the entry is published, and an open stream reads the arena without it, its pin keeps the blocks.
+    private final ReentrantLock lock;
+    private final LinkedHashMap<String, Entry> entries;
+    // Keys missed once recently, admitted on the next miss.
+    private final LinkedHashMap<String, Boolean> doorkeeper;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    private ByteBuffer arena;
+    private int[] freeBlocks;
+    private int freeCount;
+
+    public HotFilesCache(Environment env) {
+        var size = env.getProperty("files_cache_size", DataSize.class, DataSize.ofMegabytes(64)).toBytes();
+
+        blockCount = (int) Math.min(size / BLOCK_SIZE, Integer.MAX_VALUE / BLOCK_SIZE);
+        maxFileSize = Math.min(
+                env.getProperty("files_cache_max_file_size", DataSize.class, DataSize.ofKilobytes(64)).toBytes(),
+                (long) blockCount * BLOCK_SIZE
+        );
+        lock = new ReentrantLock();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        var doorkeeperSize = Math.max(blockCount, 16);
+
+        doorkeeper = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > doorkeeperSize;
+            }
+        };
+    }
+
+    // Whether content of a file of this size may be cached. Stored content of an encoded
+    // file is checked again when it is read, it may be larger than the original.
+    public boolean accepts(long size) {
+        return blockCount > 0 && size <= maxFileSize;
+    }
+
+    // Content stored under the local name, from the cache or from the file at the path.
+    // The stream must be closed, cached blocks can't be reused while it is open.
+    public InputStream open(String localName, Path path) throws IOException {
+        boolean admit;
+
+        lock.lock();
+
+        try {
+            var entry = entries.get(localName);
+
+            if (entry != null) {
+                entry.pins++;
+
+                hits.increment();
+
+                return new EntryStream(entry);
+            }
+
+            admit = doorkeeper.remove(localName) != null;
+
+            if (!admit) {
+                doorkeeper.put(localName, Boolean.TRUE);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            var size = channel.size();
+
+            if (!admit || !accepts(size)) {
+                return Channels.newInputStream(channel);
+            }
+
+            var entry = load(localName, channel, (int) size);
+
+            if (entry == null) {
+                channel.position(0);
+
+                return Channels.newInputStream(channel);
+            }
+
+            channel.close();
+
+            return new EntryStream(entry);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+
+            throw e;
+        }
+    }
+
+    // Length of the cached content, -1 if it isn't cached.
+    public long length(String localName) {
+        lock.lock();
+
+        try {
+            var entry = entries.get(localName);
+
+            return entry == null ? -1 : entry.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(String localName) {
+        lock.lock();
+
+        try {
+            doorkeeper.remove(localName);
+
+            var entry = entries.remove(localName);
+
+            if (entry != null) {
+                retire(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("files.cache.hits", this, HotFilesCache::getHits)
+                .register(registry);
+        FunctionCounter.builder("files.cache.misses", this, HotFilesCache::getMisses)
+                .register(registry);
+        FunctionCounter.builder("files.cache.evictions", this, HotFilesCache::getEvictions)
+                .register(registry);
+        Gauge.builder("files.cache.hit.ratio", this, HotFilesCache::getHitRatio)
+                .register(registry);
+        Gauge.builder("files.cache.size", this, HotFilesCache::getUsedBytes)
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        var hits = getHits();
+        var total = hits + getMisses();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getUsedBytes() {
+        lock.lock();
+
+        try {
+            return arena == null ? 0 : (long) (blockCount - freeCount) * BLOCK_SIZE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Reads the file into free blocks. Returns the pinned entry, or null if
+    // there is no room because the entries which could be evicted are being read.
+    private Entry load(String localName, FileChannel channel, int size) throws IOException {
+        var blocks = allocate((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+        if (blocks == null) {
+            return null;
+        }
+
+        // Blocks are owned by this thread until the entry is published.
+        var loaded = false;
+
+        try {
+            for (var i = 0; i < blocks.length; i++) {
+                var buffer = arena.slice(blocks[i] * BLOCK_SIZE, Math.min(BLOCK_SIZE, size - i * BLOCK_SIZE));
+
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        // Shorter than its size said, not worth caching.
+                        return null;
+                    }
+                }
+            }
+
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                free(blocks);
+            }
+        }
+
+        lock.lock();
+
+        try {
+            var existing = entries.get(localName);
+
+            // Loaded concurrently by another request.
+            if (existing != null) {
+                free(blocks);
+
+                existing.pins++;
+
+                return existing;
+            }
+
+            var entry = new Entry(blocks, size);
+
+            entry.pins++;
+
+            entries.put(localName, entry);
+
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int[] allocate(int count) {
+        lock.lock();
+
+        try {
+            if (arena == null) {
+                arena = ByteBuffer.allocateDirect(blockCount * BLOCK_SIZE);
+                freeBlocks = new int[blockCount];
+                freeCount = blockCount;
+
+                for (var i = 0; i < blockCount; i++) {
+                    freeBlocks[i] = blockCount - 1 - i;
+                }
+            }
+
+            // Pinned entries are being read, evicting them frees nothing until their streams are closed.
+            // Nothing is evicted at all if the rest can't make enough room.
+            var available = freeCount;
+
+            for (var entry : entries.values()) {
+                if (entry.pins == 0) {
+                    available += entry.blocks.length;
+                }
+            }
+
+            if (available < count) {
+                return null;
+            }
+
+            var iterator = entries.values().iterator();
+
+            while (freeCount < count) {
+                var entry = iterator.next();
+
+                if (entry.pins > 0) {
+                    continue;
+                }
+
+                iterator.remove();
+
+                evictions.increment();
+
+                retire(entry);
+            }
+
+            var res = new int[count];
+
+            for (var i = 0; i < count; i++) {
+                res[i] = freeBlocks[--freeCount];
+            }
+
+            return res;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void free(int[] blocks) {
+        lock.lock();
+
+        try {
+            for (var block : blocks) {
+                freeBlocks[freeCount++] = block;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called under the lock for an entry removed from the map.
+    private void retire(Entry entry) {
+        entry.removed = true;
+
+        if (entry.pins == 0) {
+            free(entry.blocks);
+        }
+    }
+
+    private void release(Entry entry) {
+        lock.lock();
+
+        try {
+            entry.pins--;
+
+            if (entry.removed && entry.pins == 0) {
+                free(entry.blocks);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry {
+        private final int[] blocks;
+        private final int length;
+        // Open streams, guarded by the cache lock.
+        private int pins;
+        private boolean removed;
+
+        private Entry(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    // Copies straight from the arena into the reader's buffer.
+    private class EntryStream extends InputStream {
+        private final Entry entry;
+        private int position;
+        private boolean closed;
+
+        private EntryStream(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+
+            if (position >= entry.length) {
+                return -1;
+            }
+
+            var res = arena.get(offset(position)) & 0xff;
+
+            position++;
+
+            return res;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+
+            if (len == 0) {
+                return 0;
+            }
+
+            if (position >= entry.length) {
+                return -1;
+            }
+
+            // Up to the end of the current block.
+            var n = Math.min(len, Math.min(entry.length - position, BLOCK_SIZE - position % BLOCK_SIZE));
+
+            arena.get(offset(position), b, off, n);
+
+            position += n;
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            var skipped = (int) Math.max(0, Math.min(n, entry.length - position));
+
+            position += skipped;
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return entry.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+
+                release(entry);
+            }
+        }
+
+        // Blocks of a closed stream may already belong to another entry.
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        private int offset(int position) {
+            return entry.blocks[position / BLOCK_SIZE] * BLOCK_SIZE + position % BLOCK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.netology.homework_61.service;
+
+import java.time.Duration;
+
+public class LoginThrottledException extends CloudServiceException {
+    private final Duration retryAfter;
+
+    public LoginThrottledException(Duration retryAfter) {
+        super("Too many logins in progress");
+
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,105 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.core.env.Environment;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Checks password hashes on a small dedicated pool. BCrypt is slow on purpose, so a burst
+// of logins on request threads would take every core from file transfers. Checks beyond
+// the pool and its queue are rejected right away instead of piling up.
+@Component
+public class PasswordVerifier {
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final Duration retryAfter;
+    private final Timer checkTimer;
+    private final Timer waitTimer;
+    private final Counter rejected;
+
+    public PasswordVerifier(PasswordEncoder passwordEncoder, Environment env, MeterRegistry meterRegistry) {
+        this.passwordEncoder = passwordEncoder;
+
+        var threadsPerCore = env.getProperty("password_check_threads_per_core", Double.class, 0.5);
+        var queueSize = env.getProperty("password_check_queue_size", Integer.class, 64);
+
+        var threads = Math.max(1, (int) (Runtime.getRuntime().availableProcessors() * threadsPerCore));
+
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+
+        executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                0,
+                TimeUnit.MILLISECONDS,
+                queue,
+                Thread.ofPlatform().name("password-check-", 0).daemon().factory()
+        );
+
+        retryAfter = env.getProperty("password_check_retry_after", Duration.class, Duration.ofSeconds(1));
+
+        checkTimer = Timer.builder("auth.password.check")
+                .description("Password hash verification on login")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("auth.password.wait")
+                .description("Time a password check spends in the queue")
+                .register(meterRegistry);
+        rejected = Counter.builder("auth.password.rejected")
+                .description("Password checks rejected because the queue was full")
+                .register(meterRegistry);
+        Gauge.builder("auth.password.queue", executor, e -> e.getQueue().size())
+                .description("Password checks waiting for a thread")
+                .register(meterRegistry);
+        Gauge.builder("auth.password.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+    }
+
+    public boolean matches(String password, String passwordHash) throws LoginThrottledException {
+        var submittedAt = System.nanoTime();
+
+        Future<Boolean> result;
+
+        try {
+            result = executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+
+                return checkTimer.record(() -> passwordEncoder.matches(password, passwordHash));
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+
+            throw new LoginThrottledException(retryAfter);
+        }
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Interrupted while checking password", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password check failed", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,15 @@
+package ru.netology.homework_61.service;
+
+public class QuotaExceededException extends CloudServiceException {
+    private final long quota;
+
+    public QuotaExceededException(long quota) {
+        super(String.format("Storage quota of %d bytes is exceeded", quota));
+
+        this.quota = quota;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+}
@@ -0,0 +1,9 @@
+package ru.netology.homework_61.service;
+
+// How a search query is matched against file names, case-insensitively.
+public enum SearchMode {
+    CONTAINS,
+    PREFIX,
+    // The query is an extension, with or without the leading dot.
+    EXTENSION
+}
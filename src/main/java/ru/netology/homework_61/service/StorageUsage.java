@@ -0,0 +1,20 @@
+package ru.netology.homework_61.service;
+
+// Bytes stored by a user. quota is 0 when storage is not limited.
+public class StorageUsage {
+    private final long usedBytes;
+    private final long quota;
+
+    public StorageUsage(long usedBytes, long quota) {
+        this.usedBytes = usedBytes;
+        this.quota = quota;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+}
@@ -0,0 +1,76 @@
+package ru.netology.homework_61.service;
+
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.User;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+// Result of writing file content to the storage.
+class StoredFile {
+    private final String localName;
+    private final String checksum;
+    private final ChecksumAlgorithm checksumAlgorithm;
+    private final long size;
+    private final String blobChecksum;
+    private final String contentEncoding;
+    // Content of a blob which isn't referenced yet, see FilesStorage.placeBlob.
+    private final Path stagedPath;
+
+    public StoredFile(String localName, String checksum, ChecksumAlgorithm checksumAlgorithm, long size, String blobChecksum, String contentEncoding) {
+        this(localName, checksum, checksumAlgorithm, size, blobChecksum, contentEncoding, null);
+    }
+
+    public StoredFile(String localName, String checksum, ChecksumAlgorithm checksumAlgorithm, long size, String blobChecksum, String contentEncoding, Path stagedPath) {
+        this.localName = localName;
+        this.checksum = checksum;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.size = size;
+        this.blobChecksum = blobChecksum;
+        this.contentEncoding = contentEncoding;
+        this.stagedPath = stagedPath;
+    }
+
+    public String getLocalName() {
+        return localName;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public ChecksumAlgorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getBlobChecksum() {
+        return blobChecksum;
+    }
+
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    public Path getStagedPath() {
+        return stagedPath;
+    }
+
+    public boolean isStaged() {
+        return stagedPath != null;
+    }
+
+    public FileData toFileData(User user, String fileName) {
+        var res = new FileData(user, fileName, localName, checksum, size);
+
+        res.setChecksumAlgorithm(checksumAlgorithm.getName());
+        res.setBlobChecksum(blobChecksum);
+        res.setContentEncoding(contentEncoding);
+        res.setUploadedAt(Instant.now());
+
+        return res;
+    }
+}
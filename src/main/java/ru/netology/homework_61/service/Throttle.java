@@ -0,0 +1,26 @@
+package ru.netology.homework_61.service;
+
+import java.time.Duration;
+
+// Limits the rate of background work to the given number of operations per second.
+final class Throttle {
+    private final long nanosPerOperation;
+    private long next = System.nanoTime();
+
+    Throttle(int operationsPerSecond) {
+        nanosPerOperation = 1_000_000_000L / Math.max(operationsPerSecond, 1);
+    }
+
+    // Waits until the given number of operations may be done.
+    void acquire(int operations) throws InterruptedException {
+        var now = System.nanoTime();
+
+        if (next - now > 0) {
+            Thread.sleep(Duration.ofNanos(next - now));
+        } else {
+            next = now;
+        }
+
+        next += operations * nanosPerOperation;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.netology.homework_61.service;
+
+public class UploadSessionNotFoundException extends CloudServiceException {
+    private final String uploadId;
+
+    public UploadSessionNotFoundException(String uploadId) {
+        super(String.format("Upload session '%s' not found", uploadId));
+
+        this.uploadId = uploadId;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+}
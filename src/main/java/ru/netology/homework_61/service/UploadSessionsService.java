@@ -0,0 +1,311 @@
+package ru.netology.homework_61.service;
+
+import jakarta.transaction.Transactional;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import ru.netology.homework_61.model.UploadSession;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Resumable uploads: a session is created, numbered chunks are appended to its staging
+// file one after another, and the commit turns the staging file into a regular user file.
+@Service
+public class UploadSessionsService {
+    private static final Logger log = LoggerFactory.getLogger(UploadSessionsService.class);
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
+    private final CloudServiceRepository repository;
+    private final FilesService filesService;
+    private final FilesStorage storage;
+    private final AccessTokenCache tokenCache;
+    private final ChecksumEngine checksumEngine;
+    private final TransactionTemplate transactions;
+    private final Duration sessionTimeout;
+    private final long maxChunkSize;
+
+    public UploadSessionsService(
+            CloudServiceRepository repository,
+            FilesService filesService,
+            FilesStorage storage,
+            AccessTokenCache tokenCache,
+            ChecksumEngine checksumEngine,
+            TransactionTemplate transactions,
+            Environment env
+    ) {
+        this.repository = repository;
+        this.filesService = filesService;
+        this.storage = storage;
+        this.tokenCache = tokenCache;
+        this.checksumEngine = checksumEngine;
+        this.transactions = transactions;
+        sessionTimeout = env.getProperty("upload_session_timeout", Duration.class, Duration.ofDays(1));
+        maxChunkSize = env.getProperty("upload_chunk_max_size", DataSize.class, DataSize.ofMegabytes(64)).toBytes();
+    }
+
+    public UploadSession createSession(String authToken, String fileName) throws AuthorizationException {
+        var user = findUser(authToken);
+
+        var session = new UploadSession(
+                RandomStringUtils.random(40, 0, 0, true, true, null, ThreadLocalRandom.current()),
+                user,
+                fileName,
+                Instant.now()
+        );
+
+        repository.saveUploadSession(session);
+
+        return session;
+    }
+
+    public UploadSession getSession(String authToken, String uploadId) throws AuthorizationException, UploadSessionNotFoundException {
+        var user = findUser(authToken);
+
+        return findSession(user, uploadId);
+    }
+
+    // Appends the chunk to the session. Chunks which were accepted already are ignored,
+    // so the client may safely resend the last chunk if it didn't get the response.
+    public UploadSession receiveChunk(String authToken, String uploadId, int chunk, String checksum, InputStream content) throws IOException, CloudServiceException {
+        var user = findUser(authToken);
+
+        var session = findSession(user, uploadId);
+
+        if (chunk < session.getNextChunk()) {
+            return session;
+        }
+
+        if (chunk > session.getNextChunk()) {
+            throw new ChunkOutOfOrderException(session.getNextChunk());
+        }
+
+        // Chunk length is unknown until it is received, at least one more byte has to fit.
+        // The exact size is checked on commit.
+        filesService.checkQuota(user, session.getFileName(), session.getReceivedBytes() + 1);
+
+        // Received into a file of its own: a chunk which fails the checksum or loses
+        // to a concurrent retry never touches the bytes accepted already.
+        var chunkPath = storage.uploadChunkPath(uploadId);
+
+        try {
+            var received = stageChunk(chunkPath, checksum, content);
+
+            return appendChunk(uploadId, chunk, chunkPath, received);
+        } finally {
+            Files.deleteIfExists(chunkPath);
+        }
+    }
+
+    // Runs in one transaction with the session row locked: a chunk which is still being appended is
+    // waited for, and the row is removed together with saving the file, so a commit which fails
+    // (over the quota, or on an I/O error) leaves the session to be resumed or committed again.
+    @Transactional(rollbackOn = {IOException.class, CloudServiceException.class})
+    public void commit(String authToken, String uploadId) throws IOException, CloudServiceException {
+        var user = findUser(authToken);
+
+        // Locked before anything else reads it in this transaction, so the state is the latest one.
+        var session = repository.lockUploadSession(uploadId)
+                .filter(s -> s.getUser().getId() == user.getId())
+                .orElseThrow(() -> new UploadSessionNotFoundException(uploadId));
+
+        var path = storage.uploadSessionPath(uploadId);
+
+        // Bytes of a rejected chunk may follow the accepted ones.
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(session.getReceivedBytes());
+        }
+
+        var link = storage.linkUploadFile(uploadId);
+
+        StoredFile storedFile;
+
+        try {
+            storedFile = storage.adopt(link, session.getFileName());
+        } finally {
+            // Moved or removed by adopt unless it failed.
+            Files.deleteIfExists(link);
+        }
+
+        filesService.saveStoredFile(user, session.getFileName(), storedFile);
+
+        repository.deleteUploadSession(uploadId);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // Removed later with the abandoned sessions' files.
+                    log.warn("Failed to remove file of upload session {}", uploadId, e);
+                }
+            }
+        });
+    }
+
+    public void cancel(String authToken, String uploadId) throws IOException, AuthorizationException, UploadSessionNotFoundException {
+        var user = findUser(authToken);
+
+        findSession(user, uploadId);
+
+        if (repository.deleteUploadSession(uploadId)) {
+            Files.deleteIfExists(storage.uploadSessionPath(uploadId));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${upload_sessions_cleanup_interval:PT10M}")
+    public void removeAbandonedSessions() {
+        var expiredBefore = Instant.now().minus(sessionTimeout);
+
+        try {
+            var removed = 0;
+
+            while (true) {
+                var expired = repository.listExpiredUploadSessions(expiredBefore, CLEANUP_BATCH_SIZE);
+
+                for (var uploadId : expired) {
+                    if (repository.deleteUploadSession(uploadId)) {
+                        Files.deleteIfExists(storage.uploadSessionPath(uploadId));
+
+                        removed++;
+                    }
+                }
+
+                if (expired.size() < CLEANUP_BATCH_SIZE) {
+                    break;
+                }
+            }
+
+            // Staging files left by commits which failed after the session row was removed.
+            removed += storage.removeStaleUploadFiles(expiredBefore);
+
+            if (removed > 0) {
+                log.info("Removed {} abandoned upload sessions", removed);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to remove abandoned upload sessions", e);
+        }
+    }
+
+    private long stageChunk(Path chunkPath, String checksum, InputStream content) throws IOException, ChunkRejectedException {
+        String hash;
+        long received;
+
+        // One byte over the limit tells that the chunk is too large. The request stream is closed by the container.
+        var limited = BoundedInputStream.builder()
+                .setInputStream(CloseShieldInputStream.wrap(content))
+                .setMaxCount(maxChunkSize + 1)
+                .get();
+
+        try (var file = new FileOutputStream(chunkPath.toFile())) {
+            hash = checksumEngine.copy(limited, file);
+            received = file.getChannel().position();
+        }
+
+        if (received > maxChunkSize) {
+            throw new ChunkRejectedException("Chunk is larger than " + maxChunkSize + " bytes");
+        }
+
+        if (checksum == null || !hash.equalsIgnoreCase(checksum)) {
+            throw new ChunkRejectedException("Chunk checksum mismatch");
+        }
+
+        return received;
+    }
+
+    // The chunk is copied into the session's file under the lock of the session row, in the transaction
+    // which moves the session past it. Bytes copied by a transaction which then fails lie past
+    // received_bytes, they are overwritten by the next chunk and cut off on commit.
+    private UploadSession appendChunk(String uploadId, int chunk, Path chunkPath, long received) throws IOException, UploadSessionNotFoundException {
+        Optional<UploadSession> res;
+
+        try {
+            res = transactions.execute(status -> {
+                var session = repository.lockUploadSession(uploadId);
+
+                // Accepted by a concurrent retry meanwhile, or committed or cancelled.
+                if (session.isEmpty() || session.get().getNextChunk() != chunk) {
+                    return session;
+                }
+
+                try {
+                    copyChunk(chunkPath, storage.uploadSessionPath(uploadId), session.get().getReceivedBytes(), received);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                session.get().setNextChunk(chunk + 1);
+                session.get().setReceivedBytes(session.get().getReceivedBytes() + received);
+                session.get().setUpdatedAt(Instant.now());
+
+                return session;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (res.isEmpty()) {
+            throw new UploadSessionNotFoundException(uploadId);
+        }
+
+        return res.get();
+    }
+
+    // File to file transferTo is done within the kernel.
+    private static void copyChunk(Path chunkPath, Path sessionPath, long position, long length) throws IOException {
+        try (
+                var source = FileChannel.open(chunkPath, StandardOpenOption.READ);
+                var target = FileChannel.open(sessionPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+        ) {
+            target.position(position);
+
+            long copied = 0;
+
+            while (copied < length) {
+                copied += source.transferTo(copied, length - copied, target);
+            }
+        }
+    }
+
+    private UploadSession findSession(User user, String uploadId) throws UploadSessionNotFoundException {
+        var session = repository.findUploadSession(user, uploadId);
+
+        if (session.isEmpty()) {
+            throw new UploadSessionNotFoundException(uploadId);
+        }
+
+        return session.get();
+    }
+
+    private User findUser(String authToken) throws AuthorizationException {
+        var user = tokenCache.findUserByAccessToken(authToken);
+
+        if (user.isEmpty()) {
+            throw new AuthorizationException();
+        }
+
+        return user.get();
+    }
+}
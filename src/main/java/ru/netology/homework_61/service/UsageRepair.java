@@ -0,0 +1,86 @@
+package ru.netology.homework_61.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import java.util.List;
+
+// Periodically recomputes used bytes of every user from files_data, fixing counters
+// which drifted (e.g. after manual changes in the database).
+@Component
+public class UsageRepair {
+    private static final Logger log = LoggerFactory.getLogger(UsageRepair.class);
+    // Uploads and deletions of the locked users wait for the batch, so it is kept small.
+    private static final int BATCH_SIZE = 50;
+
+    private final CloudServiceRepository repository;
+    private final TransactionTemplate transactions;
+    private final Counter repairedCounters;
+
+    public UsageRepair(CloudServiceRepository repository, TransactionTemplate transactions, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.transactions = transactions;
+        repairedCounters = Counter.builder("users.usage.repaired")
+                .description("Used bytes counters found wrong and recomputed")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${usage_repair_interval:P1D}", initialDelayString = "${usage_repair_interval:P1D}")
+    public void repair() {
+        long lastId = 0;
+        long repaired = 0;
+
+        try {
+            while (true) {
+                var afterId = lastId;
+
+                var batch = transactions.execute(status -> {
+                    var userIds = repository.lockUsers(afterId, BATCH_SIZE);
+
+                    var res = userIds.isEmpty() ? 0 : repository.recomputeUsedBytes(userIds);
+
+                    return new Batch(userIds, res);
+                });
+
+                if (batch == null || batch.getUserIds().isEmpty()) {
+                    break;
+                }
+
+                repaired += batch.getRepaired();
+                repairedCounters.increment(batch.getRepaired());
+
+                lastId = batch.getUserIds().get(batch.getUserIds().size() - 1);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to repair used bytes of users", e);
+        }
+
+        if (repaired > 0) {
+            log.warn("Used bytes of {} users were wrong and have been recomputed", repaired);
+        }
+    }
+
+    private static class Batch {
+        private final List<Long> userIds;
+        private final int repaired;
+
+        public Batch(List<Long> userIds, int repaired) {
+            this.userIds = userIds;
+            this.repaired = repaired;
+        }
+
+        public List<Long> getUserIds() {
+            return userIds;
+        }
+
+        public int getRepaired() {
+            return repaired;
+        }
+    }
+}
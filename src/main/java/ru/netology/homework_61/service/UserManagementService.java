@@ -2,6 +2,9 @@ package ru.netology.homework_61.service;
 
 import jakarta.transaction.Transactional;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import ru.netology.homework_61.model.User;
@@ -12,14 +15,22 @@ import java.util.Random;
 
 @Service
 public class UserManagementService {
+    private static final Logger log = LoggerFactory.getLogger(UserManagementService.class);
+    // Small batches keep the sweeper's row locks short.
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
     private final CloudServiceRepository repository;
     private final Random rand;
     private final PasswordEncoder passwordEncoder;
+    private final PasswordVerifier passwordVerifier;
+    private final AccessTokenCache tokenCache;
 
-    public UserManagementService(CloudServiceRepository repository, PasswordEncoder encoder) {
+    public UserManagementService(CloudServiceRepository repository, PasswordEncoder encoder, PasswordVerifier passwordVerifier, AccessTokenCache tokenCache) {
         this.repository = repository;
         rand = new SecureRandom();
         passwordEncoder = encoder;
+        this.passwordVerifier = passwordVerifier;
+        this.tokenCache = tokenCache;
     }
 
     // Creates a user, returns access token.
@@ -35,14 +46,14 @@ public class UserManagementService {
     }
 
     // Returns access token.
-    public String login(String login, String password) throws UserNotFoundException, PasswordMismatchException {
+    public String login(String login, String password) throws UserNotFoundException, PasswordMismatchException, LoginThrottledException {
         var user = repository.findUserByLogin(login);
 
         if (user.isEmpty()) {
             throw new UserNotFoundException(login);
         }
 
-        if (!passwordEncoder.matches(password, user.get().getPasswordHash())) {
+        if (!passwordVerifier.matches(password, user.get().getPasswordHash())) {
             throw new PasswordMismatchException();
         }
 
@@ -54,7 +65,36 @@ public class UserManagementService {
     }
 
     public void logout(String authToken) {
-        repository.deleteUserSession(authToken);
+        var token = AccessTokenCache.normalizeToken(authToken);
+
+        repository.deleteUserSession(token);
+
+        tokenCache.invalidate(token);
+    }
+
+    @Scheduled(fixedDelayString = "${user_sessions_cleanup_interval:PT10M}")
+    public void removeExpiredSessions() {
+        try {
+            var removed = 0;
+
+            while (true) {
+                var expired = repository.deleteExpiredUserSessions(CLEANUP_BATCH_SIZE);
+
+                expired.forEach(tokenCache::invalidate);
+
+                removed += expired.size();
+
+                if (expired.size() < CLEANUP_BATCH_SIZE) {
+                    break;
+                }
+            }
+
+            if (removed > 0) {
+                log.info("Removed {} expired user sessions", removed);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to remove expired user sessions", e);
+        }
     }
 
     private String generateAccessToken(String login, String password) {
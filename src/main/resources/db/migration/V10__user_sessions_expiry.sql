@@ -0,0 +1,10 @@
+-- Sessions expire a fixed time after login and after a period without requests.
+-- Sessions created before are counted from now.
+alter table user_sessions
+    add column created_at   timestamptz not null default now(),
+    add column last_seen_at timestamptz not null default now();
+
+-- Walked by the expired sessions sweeper.
+create index if not exists user_sessions_created_at_idx on user_sessions (created_at);
+
+create index if not exists user_sessions_last_seen_at_idx on user_sessions (last_seen_at);
@@ -0,0 +1,9 @@
+-- Total size of the user's files, changed in the same transactions as files_data rows.
+alter table users
+    add column used_bytes bigint not null default 0;
+
+update users u
+set used_bytes = s.total
+from (select user_id, sum(size) as total from files_data group by user_id) s
+where u.id = s.user_id;
+
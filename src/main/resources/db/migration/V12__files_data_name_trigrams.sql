@@ -0,0 +1,7 @@
+-- Substring, prefix and extension search over names of the user's files.
+-- btree_gin lets user_id be a key of the same GIN index, so a search in one account
+-- doesn't visit trigram matches of the others.
+create extension if not exists pg_trgm;
+create extension if not exists btree_gin;
+
+create index if not exists files_data_user_id_name_trgm_idx on files_data using gin (user_id, name gin_trgm_ops);
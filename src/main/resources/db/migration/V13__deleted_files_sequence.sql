@@ -0,0 +1,13 @@
+-- deleted_files ids are allocated by Hibernate 50 at a time, so tombstones of a batch are inserted in JDBC batches.
+-- Each sequence value is the upper bound of a block, rows inserted with the default take the value itself.
+create sequence if not exists deleted_files_seq increment by 50;
+
+select setval('deleted_files_seq', coalesce((select max(id) from deleted_files), 0) + 50);
+
+alter table deleted_files
+    alter column id drop identity if exists;
+
+alter table deleted_files
+    alter column id set default nextval('deleted_files_seq');
+
+alter sequence deleted_files_seq owned by deleted_files.id;
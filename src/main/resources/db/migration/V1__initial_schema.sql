@@ -0,0 +1,31 @@
+-- Schema which used to be created by Hibernate (ddl-auto: update).
+-- Existing databases are baselined at this version, so it only runs on empty ones.
+
+create table users
+(
+    id            bigint generated by default as identity,
+    login         varchar(255) not null,
+    password_hash varchar(255) not null,
+    primary key (id)
+);
+
+create table user_sessions
+(
+    id           bigint generated by default as identity,
+    access_token varchar(255),
+    user_id      bigint,
+    primary key (id),
+    constraint user_sessions_user_id_fkey foreign key (user_id) references users
+);
+
+create table files_data
+(
+    id         bigint generated by default as identity,
+    checksum   varchar(255) not null,
+    local_name varchar(255) not null,
+    name       varchar(255) not null,
+    size       bigint       not null,
+    user_id    bigint       not null,
+    primary key (id),
+    constraint files_data_user_id_fkey foreign key (user_id) references users
+);
@@ -0,0 +1,26 @@
+-- Deduplicated blobs and resumable upload sessions.
+-- Databases updated by Hibernate may have these already.
+
+create table if not exists file_blobs
+(
+    checksum   varchar(255) not null,
+    local_name varchar(255) not null,
+    size       bigint       not null,
+    ref_count  bigint       not null,
+    primary key (checksum)
+);
+
+alter table files_data
+    add column if not exists blob_checksum varchar(255);
+
+create table if not exists upload_sessions
+(
+    id             varchar(255)                not null,
+    user_id        bigint                      not null,
+    file_name      varchar(255)                not null,
+    received_bytes bigint                      not null,
+    next_chunk     integer                     not null,
+    updated_at     timestamp(6) with time zone not null,
+    primary key (id),
+    constraint upload_sessions_user_id_fkey foreign key (user_id) references users
+);
@@ -0,0 +1,33 @@
+-- Indexes for every lookup done by CloudServiceRepository.
+
+create unique index if not exists users_login_key on users (login);
+
+create unique index if not exists user_sessions_access_token_key on user_sessions (access_token);
+
+-- File names are unique per user. Duplicates left by concurrent uploads are
+-- renamed instead of removed, so no content is lost.
+update files_data fd
+set name = fd.name || ' (' || fd.id || ')'
+where exists (select 1
+              from files_data other
+              where other.user_id = fd.user_id
+                and other.name = fd.name
+                and other.id > fd.id);
+
+-- Replaced by the unique index below.
+drop index if exists files_data_user_id_name_idx;
+
+create unique index if not exists files_data_user_id_name_key on files_data (user_id, name);
+
+-- Files not moved to shared blobs yet, walked by the deduplication migration.
+create index if not exists files_data_private_id_idx on files_data (id) where blob_checksum is null;
+
+create index if not exists upload_sessions_updated_at_idx on upload_sessions (updated_at);
+
+-- Rows which are updated in place get free space on their page,
+-- so the new row version can be stored next to the old one.
+-- files_data: renames, moves to blobs; file_blobs: reference counting;
+-- upload_sessions: every received chunk.
+alter table files_data set (fillfactor = 90);
+alter table file_blobs set (fillfactor = 80);
+alter table upload_sessions set (fillfactor = 70);
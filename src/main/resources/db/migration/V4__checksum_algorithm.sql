@@ -0,0 +1,3 @@
+-- Checksums of existing files were calculated with SHA-256.
+alter table files_data
+    add column checksum_algorithm varchar(255) not null default 'SHA-256';
@@ -0,0 +1,3 @@
+-- Upload time, sent as Last-Modified. Unknown for files uploaded before.
+alter table files_data
+    add column uploaded_at timestamp(6) with time zone;
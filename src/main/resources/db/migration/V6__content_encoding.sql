@@ -0,0 +1,6 @@
+-- Content compressed on write, null for content stored as is.
+alter table files_data
+    add column content_encoding varchar(255);
+
+alter table file_blobs
+    add column content_encoding varchar(255);
@@ -0,0 +1,2 @@
+-- Files pointing at a blob are repointed together when the blob is moved.
+create index if not exists files_data_blob_checksum_idx on files_data (blob_checksum) where blob_checksum is not null;
@@ -0,0 +1,13 @@
+-- files_data ids are allocated by Hibernate 50 at a time, so inserts can be batched.
+-- Each sequence value is the upper bound of a block, rows inserted with the default take the value itself.
+create sequence if not exists files_data_seq increment by 50;
+
+select setval('files_data_seq', coalesce((select max(id) from files_data), 0) + 50);
+
+alter table files_data
+    alter column id drop identity if exists;
+
+alter table files_data
+    alter column id set default nextval('files_data_seq');
+
+alter sequence files_data_seq owned by files_data.id;
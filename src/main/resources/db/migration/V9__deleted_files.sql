@@ -0,0 +1,17 @@
+-- Content waiting to be removed from disk.
+create table if not exists deleted_files
+(
+    id         bigint generated by default as identity,
+    local_name varchar(255) not null,
+    deleted_at timestamptz  not null,
+    primary key (id)
+);
+
+create index if not exists deleted_files_deleted_at_idx on deleted_files (deleted_at);
+
+-- Whether a local name is still referenced is checked before its file is removed.
+create index if not exists files_data_local_name_idx on files_data (local_name);
+
+create index if not exists file_blobs_local_name_idx on file_blobs (local_name);
+
+create index if not exists deleted_files_local_name_idx on deleted_files (local_name);
@@ -0,0 +1,78 @@
+package ru.netology.homework_61;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.mock.env.MockEnvironment;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+import ru.netology.homework_61.service.AccessTokenCache;
+
+import java.util.Optional;
+
+public class AccessTokenCacheTest {
+    private static final User USER = new User(1, "user", "hash");
+    private static final User OTHER_USER = new User(2, "other", "hash");
+
+    @Test
+    public void checkCaching() {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq("token")))
+                .thenReturn(Optional.of(USER));
+
+        var cache = new AccessTokenCache(repoMock, new MockEnvironment());
+
+        Assertions.assertEquals(Optional.of(USER), cache.findUserByAccessToken("token"));
+        Assertions.assertEquals(Optional.of(USER), cache.findUserByAccessToken("Bearer token"));
+
+        Mockito.verify(repoMock, Mockito.times(1))
+                .findUserIdByAccessToken(Mockito.eq("token"));
+
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+
+        Assertions.assertEquals(Optional.empty(), cache.findUserByAccessToken("unknown"));
+        Assertions.assertEquals(Optional.empty(), cache.findUserByAccessToken("unknown"));
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .findUserIdByAccessToken(Mockito.eq("unknown"));
+
+        cache.invalidate("Bearer token");
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq("token")))
+                .thenReturn(Optional.empty());
+
+        Assertions.assertEquals(Optional.empty(), cache.findUserByAccessToken("token"));
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void checkSizeBound() {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq("first")))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq("second")))
+                .thenReturn(Optional.of(OTHER_USER));
+
+        var cache = new AccessTokenCache(
+                repoMock,
+                new MockEnvironment().withProperty("access_token_cache_size", "1")
+        );
+
+        cache.findUserByAccessToken("first");
+        cache.findUserByAccessToken("second");
+        cache.findUserByAccessToken("first");
+
+        Assertions.assertEquals(1, cache.getSize());
+        Assertions.assertEquals(2, cache.getEvictions());
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .findUserIdByAccessToken(Mockito.eq("first"));
+    }
+}
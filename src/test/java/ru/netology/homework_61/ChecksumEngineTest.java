@@ -0,0 +1,49 @@
+package ru.netology.homework_61;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import ru.netology.homework_61.service.ChecksumEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ChecksumEngineTest {
+    private static final byte[] CONTENT = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void calculatesSha256() throws Exception {
+        var engine = new ChecksumEngine(new MockEnvironment(), new SimpleMeterRegistry());
+
+        var copy = new ByteArrayOutputStream();
+
+        Assertions.assertEquals(
+                "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225",
+                engine.copy(new ByteArrayInputStream(CONTENT), copy)
+        );
+        Assertions.assertArrayEquals(CONTENT, copy.toByteArray());
+
+        // Pooled state must not leak into the next checksum.
+        Assertions.assertEquals(
+                "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225",
+                engine.copy(new ByteArrayInputStream(CONTENT), new ByteArrayOutputStream())
+        );
+    }
+
+    @Test
+    public void calculatesCrc32c() throws Exception {
+        var env = new MockEnvironment().withProperty("checksum_algorithm", "CRC32C");
+
+        var engine = new ChecksumEngine(env, new SimpleMeterRegistry());
+
+        Assertions.assertEquals("e3069283", engine.copy(new ByteArrayInputStream(CONTENT), new ByteArrayOutputStream()));
+        Assertions.assertEquals("e3069283", engine.copy(new ByteArrayInputStream(CONTENT), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void encodesHex() {
+        Assertions.assertEquals("00017f80ff", ChecksumEngine.toHex(new byte[]{0, 1, 127, -128, -1}));
+    }
+}
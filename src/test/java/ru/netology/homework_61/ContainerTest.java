@@ -11,6 +11,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.util.TestPropertyValues;
 import org.springframework.context.ApplicationContextInitializer;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockPart;
@@ -30,6 +31,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -154,12 +156,34 @@ public class ContainerTest {
 
         Assertions.assertTrue(found);
 
+        var entityTag = api.perform(
+                        get("/file")
+                                .header("auth-token", accessToken)
+                                .param("filename", CHANGED_FILE_NAME)
+                )
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+
+        Assertions.assertNotNull(entityTag);
+
         api.perform(
                         get("/file")
                                 .header("auth-token", accessToken)
+                                .header(HttpHeaders.IF_NONE_MATCH, entityTag)
                                 .param("filename", CHANGED_FILE_NAME)
                 )
-                .andExpect(status().isOk());
+                .andExpect(status().isNotModified());
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", accessToken)
+                                .header(HttpHeaders.IF_MATCH, "\"other\"")
+                                .param("filename", CHANGED_FILE_NAME)
+                )
+                .andExpect(status().isPreconditionFailed());
 
         api.perform(
                         delete("/file")
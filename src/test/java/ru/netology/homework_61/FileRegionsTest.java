@@ -0,0 +1,96 @@
+package ru.netology.homework_61;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import ru.netology.homework_61.controller.FileRegions;
+import ru.netology.homework_61.controller.FileRegionsHttpMessageConverter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class FileRegionsTest {
+    private static final Path EXAMPLE_FILE_PATH = Path.of(".", "src", "test", "resources", "fish.JPG");
+
+    @Test
+    public void checkRangesParsing() {
+        Assertions.assertEquals(
+                List.of(new FileRegions.Region(0, 100)),
+                FileRegions.parseRanges("bytes=0-99", 1000)
+        );
+
+        Assertions.assertEquals(
+                List.of(new FileRegions.Region(900, 100)),
+                FileRegions.parseRanges("bytes=-100", 1000)
+        );
+
+        Assertions.assertEquals(
+                List.of(new FileRegions.Region(500, 500)),
+                FileRegions.parseRanges("bytes=500-", 1000)
+        );
+
+        Assertions.assertEquals(
+                List.of(new FileRegions.Region(990, 10)),
+                FileRegions.parseRanges("bytes=990-5000", 1000)
+        );
+
+        Assertions.assertEquals(
+                List.of(new FileRegions.Region(0, 30), new FileRegions.Region(100, 1)),
+                FileRegions.parseRanges("bytes=100-100, 10-29, 0-15", 1000)
+        );
+
+        Assertions.assertEquals(List.of(), FileRegions.parseRanges("bytes=1000-1001", 1000));
+
+        Assertions.assertNull(FileRegions.parseRanges("bytes=20-10", 1000));
+        Assertions.assertNull(FileRegions.parseRanges("bytes=abc", 1000));
+        Assertions.assertNull(FileRegions.parseRanges("items=0-10", 1000));
+    }
+
+    @Test
+    public void checkWriting() throws Exception {
+        var content = Files.readAllBytes(EXAMPLE_FILE_PATH);
+        var converter = new FileRegionsHttpMessageConverter();
+
+        var single = new FileRegions(
+                EXAMPLE_FILE_PATH,
+                MediaType.IMAGE_JPEG,
+                content.length,
+                FileRegions.parseRanges("bytes=-1024", content.length)
+        );
+
+        var singleOutput = new MockHttpOutputMessage();
+
+        converter.write(single, single.getContentType(), singleOutput);
+
+        Assertions.assertArrayEquals(
+                Arrays.copyOfRange(content, content.length - 1024, content.length),
+                singleOutput.getBodyAsBytes()
+        );
+
+        Assertions.assertEquals(1024, singleOutput.getHeaders().getContentLength());
+
+        var multiple = new FileRegions(
+                EXAMPLE_FILE_PATH,
+                MediaType.IMAGE_JPEG,
+                content.length,
+                FileRegions.parseRanges("bytes=0-9,100-199", content.length)
+        );
+
+        var multipleOutput = new MockHttpOutputMessage();
+
+        converter.write(multiple, multiple.getContentType(), multipleOutput);
+
+        Assertions.assertTrue(multiple.isMultipart());
+
+        Assertions.assertEquals(multiple.getContentLength(), multipleOutput.getBodyAsBytes().length);
+
+        var body = multipleOutput.getBodyAsString(StandardCharsets.ISO_8859_1);
+
+        Assertions.assertTrue(body.contains("Content-Range: bytes 0-9/" + content.length));
+        Assertions.assertTrue(body.contains("Content-Range: bytes 100-199/" + content.length));
+    }
+}
@@ -1,5 +1,7 @@
 package ru.netology.homework_61;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
@@ -7,23 +9,45 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
-import org.springframework.core.env.Environment;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.testcontainers.shaded.org.apache.commons.io.FileUtils;
+import ru.netology.homework_61.model.FileBlob;
 import ru.netology.homework_61.model.FileData;
 import ru.netology.homework_61.model.User;
 import ru.netology.homework_61.repository.CloudServiceRepository;
+import ru.netology.homework_61.service.AccessTokenCache;
+import ru.netology.homework_61.service.ChecksumEngine;
+import ru.netology.homework_61.service.FileAlreadyExistsException;
 import ru.netology.homework_61.service.FileNotFoundException;
+import ru.netology.homework_61.service.FileOperation;
+import ru.netology.homework_61.service.FileOperationResult;
 import ru.netology.homework_61.service.FilesService;
+import ru.netology.homework_61.service.FilesStorage;
+import ru.netology.homework_61.service.HotFilesCache;
+import ru.netology.homework_61.service.QuotaExceededException;
+import ru.netology.homework_61.service.SearchMode;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class FilesOperationsTest {
     private static final String FILES_DIR_PATH = Path.of(".", "src", "test", "resources", "files").toString();
@@ -33,6 +57,9 @@ public class FilesOperationsTest {
     private static final User USER = new User(1, "user", ENCODER.encode("passphrase"));
     private static final String FILE_NAME = "fish.JPG";
     private static final String CHANGED_FILE_NAME = "sea.JPG";
+    private static final MeterRegistry METER_REGISTRY = new SimpleMeterRegistry();
+    // The repository is mocked, transactions only run their callbacks.
+    private static final TransactionTemplate TRANSACTIONS = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
 
     @Test
     public void checkFilesOperations() throws Exception {
@@ -47,15 +74,10 @@ public class FilesOperationsTest {
         Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
                 .thenReturn(Optional.empty());
 
-        var envMock = Mockito.mock(Environment.class);
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH);
 
-        Mockito.when(envMock.getProperty(Mockito.eq("files_directory"), Mockito.anyString()))
-                .thenReturn(FILES_DIR_PATH);
-
-        Mockito.when(envMock.getProperty(Mockito.eq("files_directory")))
-                .thenReturn(FILES_DIR_PATH);
-
-        var service = new FilesService(repoMock, envMock);
+        var service = newService(repoMock, env);
 
         service.uploadFile(
                 TOKEN,
@@ -78,10 +100,18 @@ public class FilesOperationsTest {
 
         var storedFileData = argc.getValue();
 
+        // The name is locked before the file's row and the user's row, then the file is saved.
+        var order = Mockito.inOrder(repoMock);
+
+        order.verify(repoMock).lockFileName(USER, FILE_NAME);
+        order.verify(repoMock).lockFilesData(USER, List.of(FILE_NAME));
+        order.verify(repoMock).lockUsedBytes(USER);
+        order.verify(repoMock).saveFileData(storedFileData);
+
         Mockito.when(repoMock.getFileData(Mockito.eq(USER), Mockito.eq(FILE_NAME)))
                 .thenReturn(Optional.of(storedFileData));
 
-        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.anyInt()))
+        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.isNull(), Mockito.anyInt()))
                 .thenReturn(List.of(storedFileData));
 
         Mockito.clearInvocations(repoMock); // Without this further Mockito.verify(repoMock) call fails.
@@ -101,7 +131,7 @@ public class FilesOperationsTest {
         Mockito.when(repoMock.getFileData(Mockito.eq(USER), Mockito.eq(CHANGED_FILE_NAME)))
                 .thenReturn(Optional.of(storedFileData));
 
-        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.anyInt()))
+        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.isNull(), Mockito.anyInt()))
                 .thenReturn(List.of(storedFileData));
 
         Assertions.assertThrows(
@@ -138,6 +168,569 @@ public class FilesOperationsTest {
                 .deleteFileData(Mockito.eq(USER), Mockito.eq(CHANGED_FILE_NAME));
     }
 
+    @Test
+    public void checkFilesPagination() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        var first = new FileData(USER, "a.txt", "a", "a", 1);
+        var second = new FileData(USER, "b.txt", "b", "b", 1);
+        var third = new FileData(USER, "c.txt", "c", "c", 1);
+
+        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.isNull(), Mockito.eq(3)))
+                .thenReturn(List.of(first, second, third));
+
+        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.eq("b.txt"), Mockito.eq(3)))
+                .thenReturn(List.of(third));
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH);
+
+        var service = newService(repoMock, env);
+
+        var page = service.getFilesPage(TOKEN, null, 2);
+
+        Assertions.assertEquals(List.of(first, second), page.getFiles());
+        Assertions.assertEquals("b.txt", page.getLastName());
+
+        page = service.getFilesPage(TOKEN, page.getLastName(), 2);
+
+        Assertions.assertEquals(List.of(third), page.getFiles());
+        Assertions.assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void checkFilesSearch() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        var first = new FileData(USER, "report_2024.csv", "a", "a", 1);
+        var second = new FileData(USER, "report_2025.csv", "b", "b", 1);
+
+        Mockito.when(repoMock.searchFilesByUser(Mockito.eq(USER), Mockito.anyString(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(List.of(first, second));
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH);
+
+        var service = newService(repoMock, env);
+
+        var page = service.searchFiles(TOKEN, "rt_20", SearchMode.CONTAINS, null, 1);
+
+        Assertions.assertEquals(List.of(first), page.getFiles());
+        Assertions.assertEquals("report_2024.csv", page.getLastName());
+
+        // LIKE wildcards in the query are matched literally.
+        Mockito.verify(repoMock)
+                .searchFilesByUser(USER, "%rt!_20%", null, 2);
+
+        service.searchFiles(TOKEN, "100%", SearchMode.PREFIX, "a", 10);
+
+        Mockito.verify(repoMock)
+                .searchFilesByUser(USER, "100!%%", "a", 11);
+
+        service.searchFiles(TOKEN, ".csv", SearchMode.EXTENSION, null, 10);
+
+        Mockito.verify(repoMock)
+                .searchFilesByUser(USER, "%.csv", null, 11);
+    }
+
+    @Test
+    public void checkCompressedStorage() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH)
+                .withProperty("files_compression", "true");
+
+        var service = newService(repoMock, env);
+
+        var content = "timestamp,level,message\n".repeat(10000).getBytes(StandardCharsets.UTF_8);
+
+        service.uploadFile(TOKEN, "log.csv", new ByteArrayInputStream(content));
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock)
+                .saveFileData(argc.capture());
+
+        var storedFileData = argc.getValue();
+
+        Assertions.assertEquals("gzip", storedFileData.getContentEncoding());
+        Assertions.assertEquals(content.length, storedFileData.getSize());
+        Assertions.assertTrue(Files.size(Path.of(FILES_DIR_PATH, storedFileData.getLocalName())) < content.length / 5);
+
+        Mockito.when(repoMock.getFileData(Mockito.eq(USER), Mockito.eq("log.csv")))
+                .thenReturn(Optional.of(storedFileData));
+
+        try (var downloaded = service.downloadFile(TOKEN, "log.csv").getInputStream()) {
+            Assertions.assertArrayEquals(content, downloaded.readAllBytes());
+        }
+
+        // Already compressed content is stored as is.
+        service.uploadFile(
+                TOKEN,
+                FILE_NAME,
+                Files.newInputStream(Path.of(DATA_DIR_PATH.toString(), FILE_NAME))
+        );
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .saveFileData(argc.capture());
+
+        Assertions.assertNull(argc.getValue().getContentEncoding());
+    }
+
+    @Test
+    public void checkShardedLayout() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH)
+                .withProperty("files_directory_levels", "3");
+
+        var service = newService(repoMock, env);
+
+        var content = "sharded".getBytes(StandardCharsets.UTF_8);
+
+        service.uploadFile(TOKEN, "sharded.txt", new ByteArrayInputStream(content));
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock)
+                .saveFileData(argc.capture());
+
+        var storedFileData = argc.getValue();
+
+        Assertions.assertTrue(storedFileData.getLocalName().matches("([0-9a-f]{2}/){3}[^/]+"));
+        Assertions.assertTrue(Files.exists(Path.of(FILES_DIR_PATH, storedFileData.getLocalName())));
+
+        Mockito.when(repoMock.getFileData(Mockito.eq(USER), Mockito.eq("sharded.txt")))
+                .thenReturn(Optional.of(storedFileData));
+
+        try (var downloaded = service.downloadFile(TOKEN, "sharded.txt").getInputStream()) {
+            Assertions.assertArrayEquals(content, downloaded.readAllBytes());
+        }
+    }
+
+    @Test
+    public void checkBatchOperations() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH);
+
+        var service = newService(repoMock, env);
+
+        service.uploadFile(TOKEN, "a.txt", new ByteArrayInputStream("a".getBytes(StandardCharsets.UTF_8)));
+        service.uploadFile(TOKEN, "b.txt", new ByteArrayInputStream("b".getBytes(StandardCharsets.UTF_8)));
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .saveFileData(argc.capture());
+
+        var a = argc.getAllValues().get(0);
+        var b = argc.getAllValues().get(1);
+
+        Mockito.when(repoMock.lockFilesData(Mockito.eq(USER), Mockito.anyCollection()))
+                .thenReturn(List.of(a, b));
+
+        Mockito.clearInvocations(repoMock);
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        List<FileOperationResult> results;
+
+        try {
+            results = service.applyOperations(
+                    TOKEN,
+                    List.of(
+                            new FileOperation(FileOperation.Type.RENAME, "a.txt", "c.txt"),
+                            new FileOperation(FileOperation.Type.COPY, "b.txt", "d.txt"),
+                            new FileOperation(FileOperation.Type.DELETE, "b.txt", null),
+                            new FileOperation(FileOperation.Type.DELETE, "missing.txt", null),
+                            new FileOperation(FileOperation.Type.COPY, "c.txt", "d.txt"),
+                            new FileOperation(FileOperation.Type.RENAME, "c.txt", null),
+                            // Name freed by the rename is taken again.
+                            new FileOperation(FileOperation.Type.COPY, "d.txt", "a.txt")
+                    )
+            );
+
+            for (var synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        Assertions.assertEquals(
+                List.of(
+                        new FileOperationResult("a.txt", FileOperationResult.Status.OK),
+                        new FileOperationResult("b.txt", FileOperationResult.Status.OK),
+                        new FileOperationResult("b.txt", FileOperationResult.Status.OK),
+                        new FileOperationResult("missing.txt", FileOperationResult.Status.FILE_NOT_FOUND),
+                        new FileOperationResult("c.txt", FileOperationResult.Status.FILE_ALREADY_EXISTS),
+                        new FileOperationResult("c.txt", FileOperationResult.Status.INVALID),
+                        new FileOperationResult("d.txt", FileOperationResult.Status.OK)
+                ),
+                results
+        );
+
+        Assertions.assertEquals("c.txt", a.getName());
+
+        // Target names are locked in sorted order before the rows are.
+        var order = Mockito.inOrder(repoMock);
+
+        order.verify(repoMock).lockFileName(USER, "a.txt");
+        order.verify(repoMock).lockFileName(USER, "c.txt");
+        order.verify(repoMock).lockFileName(USER, "d.txt");
+        order.verify(repoMock).lockFilesData(Mockito.eq(USER), Mockito.anyCollection());
+
+        Mockito.verify(repoMock, Mockito.times(3))
+                .lockFileName(Mockito.any(), Mockito.anyString());
+
+        Mockito.verify(repoMock)
+                .removeFileData(b);
+        Mockito.verify(repoMock)
+                .flush();
+
+        argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .addFileData(argc.capture());
+
+        var copy = argc.getAllValues().get(0);
+
+        Assertions.assertEquals("d.txt", copy.getName());
+        Assertions.assertEquals(b.getChecksum(), copy.getChecksum());
+        Assertions.assertEquals("b", Files.readString(Path.of(FILES_DIR_PATH, copy.getLocalName())));
+        Assertions.assertEquals("a.txt", argc.getAllValues().get(1).getName());
+
+        // Content of the deleted file is left to the reaper.
+        Mockito.verify(repoMock)
+                .addDeletedFile(b.getLocalName());
+
+        // Two copies and a deletion of one byte files, applied once.
+        Mockito.verify(repoMock)
+                .changeUsedBytes(USER, 1);
+    }
+
+    @Test
+    public void checkDeduplicatedUpload() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH)
+                .withProperty("files_deduplication", "true");
+
+        var service = newService(repoMock, env);
+
+        Mockito.when(repoMock.acquireBlob(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any()))
+                .thenAnswer(invocation -> new FileBlob(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), 1))
+                .thenAnswer(invocation -> new FileBlob(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), 2));
+
+        service.uploadFile(TOKEN, "a.txt", new ByteArrayInputStream("blob".getBytes(StandardCharsets.UTF_8)));
+        service.uploadFile(TOKEN, "b.txt", new ByteArrayInputStream("blob".getBytes(StandardCharsets.UTF_8)));
+
+        // The reference is taken after the name and the user's row are locked, in the transaction which saves the file.
+        var order = Mockito.inOrder(repoMock);
+
+        order.verify(repoMock).lockFileName(USER, "a.txt");
+        order.verify(repoMock).lockUsedBytes(USER);
+        order.verify(repoMock).acquireBlob(Mockito.anyString(), Mockito.anyString(), Mockito.anyLong(), Mockito.any());
+        order.verify(repoMock).saveFileData(Mockito.any());
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .saveFileData(argc.capture());
+
+        var a = argc.getAllValues().get(0);
+        var b = argc.getAllValues().get(1);
+
+        Assertions.assertEquals(a.getLocalName(), b.getLocalName());
+        Assertions.assertEquals("blob", Files.readString(Path.of(FILES_DIR_PATH, a.getLocalName())));
+
+        // Staged copies are gone: one became the blob, the other wasn't needed.
+        try (var staged = Files.list(Path.of(FILES_DIR_PATH, ".staging"))) {
+            Assertions.assertEquals(0, staged.count());
+        }
+
+        Mockito.verify(repoMock, Mockito.never())
+                .releaseBlob(Mockito.anyString());
+    }
+
+    @Test
+    public void checkFileCopy() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        Mockito.when(repoMock.lockUsedBytes(USER))
+                .thenReturn(8L);
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH)
+                .withProperty("user_quota", "10B");
+
+        env.setConversionService(new ApplicationConversionService());
+
+        var service = newService(repoMock, env);
+
+        service.uploadFile(TOKEN, "a.txt", new ByteArrayInputStream("a".getBytes(StandardCharsets.UTF_8)));
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock)
+                .saveFileData(argc.capture());
+
+        var a = argc.getValue();
+
+        Mockito.when(repoMock.lockFilesData(Mockito.eq(USER), Mockito.anyCollection()))
+                .thenReturn(List.of(a));
+
+        Mockito.clearInvocations(repoMock);
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        try {
+            Assertions.assertThrows(
+                    FileAlreadyExistsException.class,
+                    () -> service.copyFile(TOKEN, "b.txt", "a.txt")
+            );
+
+            service.copyFile(TOKEN, "a.txt", "b.txt");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        argc = ArgumentCaptor.forClass(FileData.class);
+
+        // The new name is locked before it is checked, the used bytes before the quota is.
+        var order = Mockito.inOrder(repoMock);
+
+        order.verify(repoMock).lockFileName(USER, "b.txt");
+        order.verify(repoMock).lockFilesData(USER, List.of("a.txt", "b.txt"));
+        order.verify(repoMock).lockUsedBytes(USER);
+        order.verify(repoMock).saveFileData(argc.capture());
+
+        Mockito.verify(repoMock, Mockito.never())
+                .getUsedBytes(Mockito.any());
+
+        var copy = argc.getValue();
+
+        Assertions.assertEquals("b.txt", copy.getName());
+        Assertions.assertEquals(a.getChecksum(), copy.getChecksum());
+        Assertions.assertEquals(a.getSize(), copy.getSize());
+        Assertions.assertNotEquals(a.getLocalName(), copy.getLocalName());
+        Assertions.assertEquals("a", Files.readString(Path.of(FILES_DIR_PATH, copy.getLocalName())));
+
+        Mockito.when(repoMock.lockUsedBytes(USER))
+                .thenReturn(10L);
+
+        Assertions.assertThrows(
+                QuotaExceededException.class,
+                () -> service.copyFile(TOKEN, "a.txt", "c.txt")
+        );
+
+        Mockito.when(repoMock.lockFilesData(Mockito.eq(USER), Mockito.anyCollection()))
+                .thenReturn(List.of());
+
+        Assertions.assertThrows(
+                FileNotFoundException.class,
+                () -> service.copyFile(TOKEN, "missing.txt", "c.txt")
+        );
+    }
+
+    @Test
+    public void checkQuota() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        Mockito.when(repoMock.getUsedBytes(USER))
+                .thenReturn(8L);
+
+        Mockito.when(repoMock.lockUsedBytes(USER))
+                .thenReturn(8L);
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH)
+                .withProperty("user_quota", "10B");
+
+        env.setConversionService(new ApplicationConversionService());
+
+        var service = newService(repoMock, env);
+
+        var content = "12345".getBytes(StandardCharsets.UTF_8);
+
+        // Rejected by the declared size, before anything is stored.
+        Assertions.assertThrows(
+                QuotaExceededException.class,
+                () -> service.uploadFile(TOKEN, "new.txt", new ByteArrayInputStream(content), content.length)
+        );
+
+        // Rejected once the size is known.
+        Assertions.assertThrows(
+                QuotaExceededException.class,
+                () -> service.uploadFile(TOKEN, "new.txt", new ByteArrayInputStream(content))
+        );
+
+        Mockito.verify(repoMock, Mockito.never())
+                .saveFileData(Mockito.any());
+
+        Assertions.assertEquals(8, service.getUsage(TOKEN).getUsedBytes());
+
+        // Replacing a file frees its size.
+        var oldFileData = new FileData(USER, "old.txt", "old", "checksum", 4);
+
+        Mockito.when(repoMock.getFileData(USER, "old.txt"))
+                .thenReturn(Optional.of(oldFileData));
+        Mockito.when(repoMock.lockFilesData(USER, List.of("old.txt")))
+                .thenReturn(List.of(oldFileData));
+
+        service.uploadFile(TOKEN, "old.txt", new ByteArrayInputStream(content), content.length);
+
+        Mockito.verify(repoMock)
+                .saveFileData(Mockito.any());
+
+        // The early check read the counter before a concurrent upload changed it,
+        // the one under the lock of the user's row rejects the file.
+        Mockito.when(repoMock.getUsedBytes(USER))
+                .thenReturn(0L);
+
+        Assertions.assertThrows(
+                QuotaExceededException.class,
+                () -> service.uploadFile(TOKEN, "new.txt", new ByteArrayInputStream(content), content.length)
+        );
+
+        Mockito.verify(repoMock)
+                .saveFileData(Mockito.any());
+    }
+
+    @Test
+    public void checkArchive() throws Exception {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", FILES_DIR_PATH)
+                .withProperty("files_compression", "true");
+
+        var service = newService(repoMock, env);
+
+        var text = "timestamp,level,message\n".repeat(10000).getBytes(StandardCharsets.UTF_8);
+        var image = Files.readAllBytes(Path.of(DATA_DIR_PATH.toString(), FILE_NAME));
+
+        service.uploadFile(TOKEN, "log.csv", new ByteArrayInputStream(text));
+        service.uploadFile(TOKEN, FILE_NAME, new ByteArrayInputStream(image));
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .saveFileData(argc.capture());
+
+        var listed = new ArrayList<>(argc.getAllValues());
+        var log = argc.getAllValues().get(0);
+
+        // Names which would be extracted outside of the target directory.
+        for (var name : List.of("../../log.csv", "/log.csv", "..\\dir\\.\\log.csv", "..")) {
+            var fileData = new FileData(USER, name, log.getLocalName(), log.getChecksum(), log.getSize());
+
+            fileData.setContentEncoding(log.getContentEncoding());
+
+            listed.add(fileData);
+        }
+
+        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.isNull(), Mockito.anyInt()))
+                .thenReturn(listed);
+
+        var out = new ByteArrayOutputStream();
+
+        service.prepareArchive(TOKEN, null).writeTo(out);
+
+        var entries = new HashMap<String, byte[]>();
+
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+
+        Assertions.assertEquals(6, entries.size());
+        Assertions.assertArrayEquals(text, entries.get("log.csv"));
+        Assertions.assertArrayEquals(image, entries.get(FILE_NAME));
+        Assertions.assertArrayEquals(text, entries.get("log (1).csv"));
+        Assertions.assertArrayEquals(text, entries.get("log (2).csv"));
+        Assertions.assertArrayEquals(text, entries.get("dir/log.csv"));
+        Assertions.assertArrayEquals(text, entries.get("file"));
+
+        // Archive of the two uploaded files only.
+        out.reset();
+
+        Mockito.when(repoMock.listFilesByUser(Mockito.eq(USER), Mockito.isNull(), Mockito.anyInt()))
+                .thenReturn(argc.getAllValues());
+
+        service.prepareArchive(TOKEN, null).writeTo(out);
+
+        Assertions.assertTrue(out.size() < image.length + text.length / 5);
+    }
+
+    private static FilesService newService(CloudServiceRepository repository, MockEnvironment env) {
+        return new FilesService(
+                repository,
+                new FilesStorage(repository, env, new ChecksumEngine(env, METER_REGISTRY)),
+                new AccessTokenCache(repository, env),
+                new HotFilesCache(env),
+                TRANSACTIONS,
+                env,
+                METER_REGISTRY
+        );
+    }
+
     @BeforeAll
     @AfterAll
     public static void cleanFiles() throws Exception {
@@ -0,0 +1,82 @@
+package ru.netology.homework_61;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.mock.env.MockEnvironment;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+import ru.netology.homework_61.service.ChecksumEngine;
+import ru.netology.homework_61.service.FilesReconciler;
+import ru.netology.homework_61.service.FilesStorage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class FilesReconcilerTest {
+    @TempDir
+    Path filesDir;
+
+    @Test
+    public void checkReconciliation() throws Exception {
+        Files.createDirectories(filesDir.resolve("ab/cd"));
+        Files.createDirectories(filesDir.resolve(".staging"));
+
+        Files.writeString(filesDir.resolve("ab/cd/stored"), "stored");
+        Files.writeString(filesDir.resolve("ab/cd/orphan"), "orphan");
+        Files.writeString(filesDir.resolve(".staging/upload"), "upload");
+
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findKnownLocalNames(Mockito.anyCollection()))
+                .thenReturn(List.of("ab/cd/stored"));
+
+        var dangling = new FileData(1, null, "lost.txt", "ab/cd/lost", "checksum", 4);
+
+        Mockito.when(repoMock.listPrivateFiles(Mockito.eq(0L), Mockito.anyInt()))
+                .thenReturn(List.of(dangling));
+
+        Mockito.when(repoMock.listBlobs(Mockito.anyString(), Mockito.anyInt()))
+                .thenReturn(List.of());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", filesDir.toString())
+                .withProperty("files_reconciliation_grace", "PT0S")
+                .withProperty("files_reconciliation_rate", "1000000")
+                .withProperty("files_reconciliation_remove_dangling", "true");
+
+        // Durations are parsed by Spring Boot's conversion service, as in the application.
+        env.setConversionService(new ApplicationConversionService());
+
+        var meterRegistry = new SimpleMeterRegistry();
+
+        var reconciler = new FilesReconciler(repoMock, new FilesStorage(repoMock, env, new ChecksumEngine(env, meterRegistry)), env, meterRegistry);
+
+        reconciler.reconcile();
+
+        // Staging files are not stored content.
+        Mockito.verify(repoMock)
+                .findKnownLocalNames(Mockito.argThat(names -> names.size() == 2));
+
+        Mockito.verify(repoMock)
+                .addDeletedFile("ab/cd/orphan");
+
+        // Rows are removed only if their content is still missing on the next run.
+        Mockito.verify(repoMock, Mockito.never())
+                .deleteDanglingFileData(Mockito.anyLong(), Mockito.anyString());
+
+        Mockito.when(repoMock.findKnownLocalNames(Mockito.anyCollection()))
+                .thenReturn(List.of("ab/cd/stored", "ab/cd/orphan"));
+
+        reconciler.reconcile();
+
+        Mockito.verify(repoMock)
+                .deleteDanglingFileData(1, "ab/cd/lost");
+
+        Assertions.assertEquals(2, meterRegistry.get("files.reconciler.orphans").tag("kind", "row").counter().count());
+    }
+}
@@ -0,0 +1,185 @@
+package ru.netology.homework_61;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.mock.env.MockEnvironment;
+import ru.netology.homework_61.service.HotFilesCache;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HotFilesCacheTest {
+    @TempDir
+    Path filesDir;
+
+    @Test
+    public void checkCaching() throws Exception {
+        var env = new MockEnvironment()
+                .withProperty("files_cache_size", "16KB")
+                .withProperty("files_cache_max_file_size", "8KB");
+
+        env.setConversionService(new ApplicationConversionService());
+
+        var cache = new HotFilesCache(env);
+
+        var a = write("a", 5000);
+        var b = write("b", 8000);
+        var c = write("c", 8000);
+
+        // Admitted on the second miss.
+        Assertions.assertArrayEquals(Files.readAllBytes(a), read(cache, "a", a));
+        Assertions.assertEquals(-1, cache.length("a"));
+        Assertions.assertArrayEquals(Files.readAllBytes(a), read(cache, "a", a));
+        Assertions.assertEquals(5000, cache.length("a"));
+
+        Assertions.assertArrayEquals(Files.readAllBytes(a), read(cache, "a", a));
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(2, cache.getMisses());
+
+        var d = write("d", 8000);
+
+        try (var pinned = cache.open("a", a)) {
+            read(cache, "b", b);
+            read(cache, "b", b);
+
+            // Only b is evicted to make room for c: a is being read, evicting it would free nothing.
+            read(cache, "c", c);
+            Assertions.assertArrayEquals(Files.readAllBytes(c), read(cache, "c", c));
+
+            Assertions.assertEquals(5000, cache.length("a"));
+            Assertions.assertEquals(-1, cache.length("b"));
+            Assertions.assertEquals(8000, cache.length("c"));
+            Assertions.assertEquals(1, cache.getEvictions());
+
+            try (var pinnedC = cache.open("c", c)) {
+                // No room while both cached files are being read, nothing is evicted for d.
+                read(cache, "d", d);
+                Assertions.assertArrayEquals(Files.readAllBytes(d), read(cache, "d", d));
+
+                Assertions.assertEquals(-1, cache.length("d"));
+                Assertions.assertEquals(8000, cache.length("c"));
+                Assertions.assertEquals(1, cache.getEvictions());
+
+                Assertions.assertArrayEquals(Files.readAllBytes(c), pinnedC.readAllBytes());
+            }
+
+            Assertions.assertArrayEquals(Files.readAllBytes(a), pinned.readAllBytes());
+        }
+
+        Assertions.assertEquals(16384, cache.getUsedBytes());
+
+        cache.invalidate("c");
+
+        Assertions.assertEquals(-1, cache.length("c"));
+        Assertions.assertEquals(8192, cache.getUsedBytes());
+
+        // Larger files are never cached.
+        var large = write("large", 10000);
+
+        read(cache, "large", large);
+        read(cache, "large", large);
+
+        Assertions.assertEquals(-1, cache.length("large"));
+    }
+
+    @Test
+    public void checkConcurrentAccess() throws Exception {
+        var env = new MockEnvironment()
+                .withProperty("files_cache_size", "32KB")
+                .withProperty("files_cache_max_file_size", "8KB");
+
+        env.setConversionService(new ApplicationConversionService());
+
+        var cache = new HotFilesCache(env);
+
+        // Together the files need three times the room, entries are evicted all the time.
+        var names = new ArrayList<String>();
+        var contents = new HashMap<String, byte[]>();
+
+        for (var i = 0; i < 12; i++) {
+            var name = "file" + i;
+
+            names.add(name);
+            contents.put(name, Files.readAllBytes(write(name, 1000 + i * 600)));
+        }
+
+        var threads = 8;
+        var iterations = 2000;
+        var start = new CountDownLatch(1);
+        var executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            var futures = new ArrayList<Future<?>>();
+
+            for (var t = 0; t < threads; t++) {
+                var random = new Random(t);
+
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    for (var i = 0; i < iterations; i++) {
+                        var name = names.get(random.nextInt(names.size()));
+
+                        if (random.nextInt(10) == 0) {
+                            cache.invalidate(name);
+
+                            continue;
+                        }
+
+                        // A stream's blocks must not be reused by another entry until it is closed.
+                        Assertions.assertArrayEquals(contents.get(name), read(cache, name, filesDir.resolve(name)));
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (var future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // With every stream closed only the cached entries hold blocks: none leaked or freed twice.
+        long cachedBytes = 0;
+
+        for (var name : names) {
+            var length = cache.length(name);
+
+            if (length >= 0) {
+                Assertions.assertEquals(contents.get(name).length, length);
+
+                cachedBytes += (length + 4095) / 4096 * 4096;
+            }
+        }
+
+        Assertions.assertEquals(cachedBytes, cache.getUsedBytes());
+        Assertions.assertTrue(cache.getUsedBytes() <= 32768);
+    }
+
+    private Path write(String name, int size) throws Exception {
+        var content = new byte[size];
+
+        new Random(size).nextBytes(content);
+
+        return Files.write(filesDir.resolve(name), content);
+    }
+
+    private static byte[] read(HotFilesCache cache, String localName, Path path) throws Exception {
+        try (var content = cache.open(localName, path)) {
+            return content.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package ru.netology.homework_61;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.util.TestPropertyValues;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.testcontainers.containers.PostgreSQLContainer;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.UploadSession;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs every CloudServiceRepository query against a seeded database and checks
+// with EXPLAIN that each of them can be served by an index.
+@SpringBootTest
+@ContextConfiguration(initializers = {QueryPlanTest.Initializer.class})
+@ActiveProfiles("test")
+public class QueryPlanTest {
+    private static final String FILES_STORAGE_DIR_PATH = Path.of(".", "src", "test", "resources", "files").toString();
+    private static final Pattern PARAMETER = Pattern.compile("\\?");
+
+    // EXPLAIN (GENERIC_PLAN) needs PostgreSQL 16 or newer.
+    public static final PostgreSQLContainer<?> postgreSQLContainer = new PostgreSQLContainer<>("postgres:17")
+            .withDatabaseName("homework_61")
+            .withUsername("app")
+            .withPassword("nopasswd");
+
+    private final CloudServiceRepository repository;
+    private final DataSource dataSource;
+
+    @Autowired
+    public QueryPlanTest(CloudServiceRepository repository, DataSource dataSource) {
+        this.repository = repository;
+        this.dataSource = dataSource;
+    }
+
+    @BeforeAll
+    public static void startContainer() {
+        postgreSQLContainer.start();
+    }
+
+    @Test
+    public void queriesUseIndexes() throws Exception {
+        seed();
+
+        var user = repository.findUserByLogin("user500").orElseThrow();
+
+        checkPlans("addUser", () -> repository.addUser(new User(0, "new user", "hash")));
+        checkPlans("findUserByLogin", () -> repository.findUserByLogin("user1"));
+        checkPlans("saveUserSession", () -> repository.saveUserSession("new token", user));
+        // Last seen long enough ago to be updated.
+        checkPlans("findUserIdByAccessToken", () -> repository.findUserIdByAccessToken("token100"));
+        checkPlans("deleteUserSession", () -> repository.deleteUserSession("new token"));
+        checkPlans("deleteExpiredUserSessions", () -> repository.deleteExpiredUserSessions(10));
+        checkPlans("saveFileData", () -> repository.saveFileData(new FileData(user, "new file", "local", "checksum", 1)));
+        checkPlans("addFileData", () -> repository.addFileData(new FileData(user, "new file 2", "local", "checksum", 1)));
+        checkPlans("changeUsedBytes", () -> repository.changeUsedBytes(user, 1));
+        checkPlans("getUsedBytes", () -> repository.getUsedBytes(user));
+        checkPlans("lockUsedBytes", () -> repository.lockUsedBytes(user));
+        checkPlans("lockUsers", () -> repository.lockUsers(user.getId(), 10));
+        checkPlans("recomputeUsedBytes", () -> repository.recomputeUsedBytes(List.of(user.getId())));
+        checkPlans("getFileData", () -> repository.getFileData(user, "file500"));
+        checkPlans("listFilesByUser", () -> repository.listFilesByUser(user, null, 10));
+        checkPlans("listFilesByUser after", () -> repository.listFilesByUser(user, "file500", 10));
+        checkPlans("searchFilesByUser", () -> repository.searchFilesByUser(user, "%le150%", null, 10));
+        checkPlans("searchFilesByUser after", () -> repository.searchFilesByUser(user, "%.txt", "file500", 10));
+        checkPlans("findFilesData", () -> repository.findFilesData(user, List.of("file500", "file1500")));
+        checkPlans("lockFilesData", () -> repository.lockFilesData(user, List.of("file500", "file1500")));
+        checkPlans("deleteFileData", () -> repository.deleteFileData(user, "new file"));
+        checkPlans("acquireBlob", () -> repository.acquireBlob("new blob", "new blob", 1, null));
+        checkPlans("releaseBlob", () -> repository.releaseBlob("new blob"));
+        checkPlans("changeBlobReferences", () -> repository.changeBlobReferences("blob500", 1));
+        checkPlans("addDeletedFile", () -> repository.addDeletedFile("deleted"));
+        checkPlans("claimDeletedFiles", () -> repository.claimDeletedFiles(Instant.now(), 10));
+        checkPlans("lockLocalName", () -> repository.lockLocalName("local500"));
+        checkPlans("lockFileName", () -> repository.lockFileName(user, "file500"));
+        checkPlans("isLocalNameReferenced", () -> repository.isLocalNameReferenced("local500"));
+        checkPlans("findKnownLocalNames", () -> repository.findKnownLocalNames(List.of("local500", "blob500", "deleted")));
+        checkPlans("listBlobs", () -> repository.listBlobs("blob500", 10));
+        checkPlans("deleteDanglingFileData", () -> repository.deleteDanglingFileData(-1, "local"));
+        checkPlans("listPrivateFiles", () -> repository.listPrivateFiles(1000, 10));
+        checkPlans("attachFileToBlob", () -> repository.attachFileToBlob(-1, "local", "checksum", null));
+        checkPlans("listFlatFiles", () -> repository.listFlatFiles(1000, 10));
+        checkPlans("moveFile", () -> repository.moveFile(-1, "local", "00/00/local"));
+        checkPlans("listFlatBlobs", () -> repository.listFlatBlobs("blob500", 10));
+        checkPlans("moveBlob", () -> repository.moveBlob("blob500", "blob500", "00/00/blob500"));
+        checkPlans("saveUploadSession", () -> repository.saveUploadSession(new UploadSession("new upload", user, "file", Instant.now())));
+        checkPlans("findUploadSession", () -> repository.findUploadSession(user, "upload1"));
+        checkPlans("lockUploadSession", () -> repository.lockUploadSession("upload1"));
+        checkPlans("listExpiredUploadSessions", () -> repository.listExpiredUploadSessions(Instant.now().minusSeconds(60), 10));
+        checkPlans("deleteUploadSession", () -> repository.deleteUploadSession("new upload"));
+        checkPlans("deleteDanglingBlob", () -> repository.deleteDanglingBlob("blob4999", "blob4999"));
+    }
+
+    private void checkPlans(String name, Runnable query) throws SQLException {
+        RecordingStatementInspector.STATEMENTS.clear();
+
+        query.run();
+
+        var statements = new ArrayList<>(RecordingStatementInspector.STATEMENTS);
+
+        Assertions.assertFalse(statements.isEmpty(), name + " issued no statements");
+
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+
+            // Sequential scans are picked only when no index can serve the query,
+            // so the result doesn't depend on table sizes and statistics.
+            statement.execute("set local enable_seqscan = off");
+
+            for (var sql : statements) {
+                var plan = new StringBuilder();
+
+                try (var rows = statement.executeQuery("explain (generic_plan) " + toPositionalParameters(sql))) {
+                    while (rows.next()) {
+                        plan.append(rows.getString(1)).append('\n');
+                    }
+                }
+
+                Assertions.assertFalse(
+                        plan.toString().contains("Seq Scan"),
+                        name + " falls back to a sequential scan:\n" + sql + "\n" + plan
+                );
+            }
+
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void seed() throws SQLException {
+        try (var connection = dataSource.getConnection(); var statement = connection.createStatement()) {
+            statement.execute(
+                    """
+                            insert into users (login, password_hash)
+                            select 'user' || g, 'hash'
+                            from generate_series(1, 1000) g
+                            """
+            );
+
+            statement.execute(
+                    """
+                            insert into user_sessions (access_token, user_id, last_seen_at)
+                            select 'token' || g, u.id, now() - g * interval '1 minute'
+                            from generate_series(1, 5000) g
+                                join users u on u.login = 'user' || (g % 1000 + 1)
+                            """
+            );
+
+            statement.execute(
+                    """
+                            insert into file_blobs (checksum, local_name, size, ref_count)
+                            select 'blob' || g, 'blob' || g, g, 2
+                            from generate_series(1, 5000) g
+                            """
+            );
+
+            statement.execute(
+                    """
+                            insert into files_data (checksum, local_name, name, size, user_id, blob_checksum)
+                            select 'checksum' || g,
+                                   'local' || g,
+                                   'file' || g,
+                                   g,
+                                   u.id,
+                                   case when g % 2 = 0 then 'blob' || (g % 5000 + 1) end
+                            from generate_series(1, 50000) g
+                                join users u on u.login = 'user' || (g % 1000 + 1)
+                            """
+            );
+
+            statement.execute(
+                    """
+                            insert into upload_sessions (id, user_id, file_name, received_bytes, next_chunk, updated_at)
+                            select 'upload' || g, u.id, 'file' || g, 0, 0, now() - g * interval '1 minute'
+                            from generate_series(1, 5000) g
+                                join users u on u.login = 'user' || (g % 1000 + 1)
+                            """
+            );
+
+            statement.execute("analyze");
+        }
+    }
+
+    // Hibernate binds JDBC parameters, EXPLAIN (GENERIC_PLAN) expects $n placeholders.
+    private static String toPositionalParameters(String sql) {
+        var matcher = PARAMETER.matcher(sql);
+        var res = new StringBuilder();
+        var number = 0;
+
+        while (matcher.find()) {
+            matcher.appendReplacement(res, Matcher.quoteReplacement("$" + ++number));
+        }
+
+        matcher.appendTail(res);
+
+        return res.toString();
+    }
+
+    public static class RecordingStatementInspector implements StatementInspector {
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+
+            return sql;
+        }
+    }
+
+    static class Initializer
+            implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+        public void initialize(ConfigurableApplicationContext configurableApplicationContext) {
+            TestPropertyValues.of(
+                    "spring.datasource.url=" + postgreSQLContainer.getJdbcUrl(),
+                    "spring.datasource.username=" + postgreSQLContainer.getUsername(),
+                    "spring.datasource.password=" + postgreSQLContainer.getPassword(),
+                    "spring.jpa.properties.hibernate.session_factory.statement_inspector=" + RecordingStatementInspector.class.getName(),
+                    "files_directory=" + FILES_STORAGE_DIR_PATH
+            ).applyTo(configurableApplicationContext.getEnvironment());
+        }
+    }
+}
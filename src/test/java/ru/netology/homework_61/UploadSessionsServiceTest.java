@@ -0,0 +1,200 @@
+package ru.netology.homework_61;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.UploadSession;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.repository.CloudServiceRepository;
+import ru.netology.homework_61.service.AccessTokenCache;
+import ru.netology.homework_61.service.ChecksumEngine;
+import ru.netology.homework_61.service.ChunkRejectedException;
+import ru.netology.homework_61.service.FilesService;
+import ru.netology.homework_61.service.FilesStorage;
+import ru.netology.homework_61.service.HotFilesCache;
+import ru.netology.homework_61.service.QuotaExceededException;
+import ru.netology.homework_61.service.UploadSessionsService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+
+public class UploadSessionsServiceTest {
+    private static final String TOKEN = "token";
+    private static final User USER = new User(1, "user", "hash");
+    private static final String UPLOAD_ID = "upload";
+
+    @TempDir
+    Path filesDir;
+
+    private CloudServiceRepository repoMock;
+    private UploadSessionsService service;
+
+    @BeforeEach
+    public void setUp() {
+        repoMock = Mockito.mock(CloudServiceRepository.class);
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq(TOKEN)))
+                .thenReturn(Optional.of(USER));
+
+        Mockito.when(repoMock.getFileData(Mockito.any(), Mockito.anyString()))
+                .thenReturn(Optional.empty());
+
+        var env = new MockEnvironment()
+                .withProperty("files_directory", filesDir.toString())
+                .withProperty("user_quota", "8B");
+
+        env.setConversionService(new ApplicationConversionService());
+
+        var meterRegistry = new SimpleMeterRegistry();
+        var checksumEngine = new ChecksumEngine(env, meterRegistry);
+        var storage = new FilesStorage(repoMock, env, checksumEngine);
+        var tokenCache = new AccessTokenCache(repoMock, env);
+        // The repository is mocked, transactions only run their callbacks.
+        var transactions = new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class));
+
+        var filesService = new FilesService(repoMock, storage, tokenCache, new HotFilesCache(env), transactions, env, meterRegistry);
+
+        service = new UploadSessionsService(repoMock, filesService, storage, tokenCache, checksumEngine, transactions, env);
+    }
+
+    @Test
+    public void checkChunksDontOverwriteAcceptedBytes() throws Exception {
+        var session = new UploadSession(UPLOAD_ID, USER, "file.txt", Instant.now());
+        // The state a concurrent retry read before the chunk was accepted.
+        var staleSession = new UploadSession(UPLOAD_ID, USER, "file.txt", Instant.now());
+
+        Mockito.when(repoMock.findUploadSession(USER, UPLOAD_ID))
+                .thenReturn(Optional.of(session));
+        Mockito.when(repoMock.lockUploadSession(UPLOAD_ID))
+                .thenReturn(Optional.of(session));
+
+        service.receiveChunk(TOKEN, UPLOAD_ID, 0, sha256("first"), content("first"));
+
+        Assertions.assertEquals(1, session.getNextChunk());
+        Assertions.assertEquals(5, session.getReceivedBytes());
+
+        Mockito.when(repoMock.findUploadSession(USER, UPLOAD_ID))
+                .thenReturn(Optional.of(staleSession));
+
+        // A resent chunk with other content is rejected, an intact one is ignored.
+        Assertions.assertThrows(
+                ChunkRejectedException.class,
+                () -> service.receiveChunk(TOKEN, UPLOAD_ID, 0, sha256("first"), content("xxxxx"))
+        );
+
+        var res = service.receiveChunk(TOKEN, UPLOAD_ID, 0, sha256("other"), content("other"));
+
+        Assertions.assertEquals(1, res.getNextChunk());
+
+        Assertions.assertEquals("first", Files.readString(sessionPath()));
+
+        // Only the session's file is left, received chunks are removed.
+        try (var files = Files.list(filesDir.resolve(".uploads"))) {
+            Assertions.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void checkCommit() throws Exception {
+        // The row read without the lock is older than the locked one: a chunk was appended meanwhile.
+        var staleSession = new UploadSession(UPLOAD_ID, USER, "file.txt", Instant.now());
+        var session = new UploadSession(UPLOAD_ID, USER, "file.txt", Instant.now());
+
+        session.setNextChunk(2);
+        session.setReceivedBytes(6);
+
+        Mockito.when(repoMock.findUploadSession(USER, UPLOAD_ID))
+                .thenReturn(Optional.of(staleSession));
+        Mockito.when(repoMock.lockUploadSession(UPLOAD_ID))
+                .thenReturn(Optional.of(session));
+
+        // Bytes of a rejected chunk follow the accepted ones.
+        Files.createDirectories(sessionPath().getParent());
+        Files.writeString(sessionPath(), "123456xx");
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        try {
+            service.commit(TOKEN, UPLOAD_ID);
+
+            Mockito.verify(repoMock).deleteUploadSession(UPLOAD_ID);
+
+            // The session's file is kept until the transaction commits.
+            Assertions.assertTrue(Files.exists(sessionPath()));
+
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        Assertions.assertFalse(Files.exists(sessionPath()));
+
+        var argc = ArgumentCaptor.forClass(FileData.class);
+
+        Mockito.verify(repoMock)
+                .saveFileData(argc.capture());
+
+        Assertions.assertEquals(6, argc.getValue().getSize());
+        Assertions.assertEquals("123456", Files.readString(filesDir.resolve(argc.getValue().getLocalName())));
+    }
+
+    @Test
+    public void checkFailedCommitKeepsSession() throws Exception {
+        var session = new UploadSession(UPLOAD_ID, USER, "file.txt", Instant.now());
+
+        session.setNextChunk(1);
+        session.setReceivedBytes(9);
+
+        Mockito.when(repoMock.lockUploadSession(UPLOAD_ID))
+                .thenReturn(Optional.of(session));
+
+        Files.createDirectories(sessionPath().getParent());
+        Files.writeString(sessionPath(), "123456789");
+
+        // 9 bytes don't fit into the quota of 8.
+        Assertions.assertThrows(
+                QuotaExceededException.class,
+                () -> service.commit(TOKEN, UPLOAD_ID)
+        );
+
+        Mockito.verify(repoMock, Mockito.never())
+                .deleteUploadSession(Mockito.anyString());
+
+        // The session can still be resumed: its content is intact, nothing else is left behind.
+        Assertions.assertEquals("123456789", Files.readString(sessionPath()));
+
+        try (var files = Files.list(filesDir.resolve(".uploads"))) {
+            Assertions.assertEquals(1, files.count());
+        }
+    }
+
+    private Path sessionPath() {
+        return filesDir.resolve(".uploads").resolve(UPLOAD_ID);
+    }
+
+    private static ByteArrayInputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(String content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -1,17 +1,29 @@
 package ru.netology.homework_61;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import ru.netology.homework_61.model.User;
 import ru.netology.homework_61.repository.CloudServiceRepository;
+import ru.netology.homework_61.service.AccessTokenCache;
+import ru.netology.homework_61.service.LoginThrottledException;
 import ru.netology.homework_61.service.PasswordMismatchException;
+import ru.netology.homework_61.service.PasswordVerifier;
 import ru.netology.homework_61.service.UserManagementService;
 import ru.netology.homework_61.service.UserNotFoundException;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 public class UserManagementServiceTest {
     private static final PasswordEncoder ENCODER = new BCryptPasswordEncoder();
@@ -25,7 +37,9 @@ public class UserManagementServiceTest {
         Mockito.when(repoMock.findUserByLogin(Mockito.anyString()))
                 .thenReturn(Optional.empty());
 
-        var service = new UserManagementService(repoMock, ENCODER);
+        var env = new MockEnvironment();
+
+        var service = new UserManagementService(repoMock, ENCODER, new PasswordVerifier(ENCODER, env, new SimpleMeterRegistry()), new AccessTokenCache(repoMock, env));
 
         service.registerNewUser(LOGIN, PASSPHRASE);
 
@@ -61,4 +75,92 @@ public class UserManagementServiceTest {
         Mockito.verify(repoMock, Mockito.times(1))
                 .deleteUserSession(Mockito.eq(token));
     }
+
+    @Test
+    public void checkExpiredSessionsRemoval() {
+        var repoMock = Mockito.mock(CloudServiceRepository.class);
+        var user = new User(1, LOGIN, "hash");
+
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.anyString()))
+                .thenReturn(Optional.of(user));
+
+        // A full batch, then the rest.
+        var firstBatch = IntStream.range(0, 100).mapToObj(i -> "token" + i).toList();
+
+        Mockito.when(repoMock.deleteExpiredUserSessions(Mockito.anyInt()))
+                .thenReturn(firstBatch, List.of("last"));
+
+        var env = new MockEnvironment();
+        var tokenCache = new AccessTokenCache(repoMock, env);
+
+        var service = new UserManagementService(repoMock, ENCODER, new PasswordVerifier(ENCODER, env, new SimpleMeterRegistry()), tokenCache);
+
+        Assertions.assertEquals(Optional.of(user), tokenCache.findUserByAccessToken("token1"));
+
+        service.removeExpiredSessions();
+
+        Mockito.verify(repoMock, Mockito.times(2))
+                .deleteExpiredUserSessions(Mockito.anyInt());
+
+        // Removed tokens are looked up again instead of being served from the cache.
+        Mockito.when(repoMock.findUserIdByAccessToken(Mockito.eq("token1")))
+                .thenReturn(Optional.empty());
+
+        Assertions.assertEquals(Optional.empty(), tokenCache.findUserByAccessToken("token1"));
+    }
+
+    @Test
+    public void checkPasswordCheckBackpressure() throws Exception {
+        var release = new CountDownLatch(1);
+
+        var encoderMock = Mockito.mock(PasswordEncoder.class);
+
+        Mockito.when(encoderMock.matches(Mockito.anyString(), Mockito.anyString()))
+                .thenAnswer(invocation -> release.await(10, TimeUnit.SECONDS));
+
+        var env = new MockEnvironment()
+                .withProperty("password_check_threads_per_core", "0")
+                .withProperty("password_check_queue_size", "1")
+                .withProperty("password_check_retry_after", "PT5S");
+
+        // Durations are parsed by Spring Boot's conversion service, as in the application.
+        env.setConversionService(new ApplicationConversionService());
+
+        var meterRegistry = new SimpleMeterRegistry();
+
+        var verifier = new PasswordVerifier(encoderMock, env, meterRegistry);
+
+        try {
+            // One check runs on the only thread, the other one waits in the queue.
+            var running = CompletableFuture.supplyAsync(() -> matches(verifier));
+            var queued = CompletableFuture.supplyAsync(() -> matches(verifier));
+
+            while (meterRegistry.get("auth.password.queue").gauge().value() < 1) {
+                Thread.sleep(10);
+            }
+
+            var e = Assertions.assertThrows(
+                    LoginThrottledException.class,
+                    () -> verifier.matches(PASSPHRASE, "hash")
+            );
+
+            Assertions.assertEquals(Duration.ofSeconds(5), e.getRetryAfter());
+            Assertions.assertEquals(1, meterRegistry.get("auth.password.rejected").counter().count());
+
+            release.countDown();
+
+            Assertions.assertTrue(running.get());
+            Assertions.assertTrue(queued.get());
+        } finally {
+            verifier.shutdown();
+        }
+    }
+
+    private static boolean matches(PasswordVerifier verifier) {
+        try {
+            return verifier.matches(PASSPHRASE, "hash");
+        } catch (LoginThrottledException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -0,0 +1,219 @@
+package ru.netology.homework_61.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ru.netology.homework_61.model.FileData;
+import ru.netology.homework_61.model.User;
+import ru.netology.homework_61.service.DownloadableFile;
+import ru.netology.homework_61.service.FilesService;
+import ru.netology.homework_61.service.HotFilesCache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class FilesControllerTest {
+    private static final String TOKEN = "token";
+    private static final String FILE_NAME = "notes.txt";
+    private static final String CONTENT = "0123456789abcdefghij";
+    private static final User USER = new User(1, "user", "hash");
+
+    @TempDir
+    Path filesDir;
+
+    private FilesService serviceMock;
+    private HotFilesCache cache;
+    private MockMvc api;
+
+    @BeforeEach
+    public void setUp() {
+        var env = new MockEnvironment()
+                .withProperty("files_sendfile", "false")
+                .withProperty("files_cache_size", "0");
+
+        env.setConversionService(new ApplicationConversionService());
+
+        serviceMock = Mockito.mock(FilesService.class);
+        cache = new HotFilesCache(env);
+
+        api = MockMvcBuilders.standaloneSetup(new FilesController(serviceMock, env))
+                .setMessageConverters(
+                        new FileRegionsHttpMessageConverter(),
+                        new ResourceHttpMessageConverter(),
+                        new ByteArrayHttpMessageConverter()
+                )
+                .build();
+    }
+
+    @Test
+    public void checkStrongEntityTag() throws Exception {
+        store("SHA-256");
+
+        api.perform(get("/file").header("auth-token", TOKEN).param("filename", FILE_NAME))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"abcd\""));
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.RANGE, "bytes=0-9")
+                                .header(HttpHeaders.IF_RANGE, "\"abcd\"")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string(CONTENT.substring(0, 10)));
+    }
+
+    @Test
+    public void checkWeakEntityTag() throws Exception {
+        store("CRC32C");
+
+        api.perform(get("/file").header("auth-token", TOKEN).param("filename", FILE_NAME))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"crc32c-abcd\""));
+
+        // CRC32C may be the same for different content: If-Range can't rely on it.
+        for (var ifRange : new String[]{"W/\"crc32c-abcd\"", "\"crc32c-abcd\"", "\"abcd\""}) {
+            api.perform(
+                            get("/file")
+                                    .header("auth-token", TOKEN)
+                                    .header(HttpHeaders.RANGE, "bytes=0-9")
+                                    .header(HttpHeaders.IF_RANGE, ifRange)
+                                    .param("filename", FILE_NAME)
+                    )
+                    .andExpect(status().isOk())
+                    .andExpect(content().string(CONTENT));
+        }
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.IF_NONE_MATCH, "W/\"crc32c-abcd\"")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void checkDownloadedBytes() throws Exception {
+        store("SHA-256");
+
+        api.perform(get("/file").header("auth-token", TOKEN).param("filename", FILE_NAME))
+                .andExpect(status().isOk());
+
+        Mockito.verify(serviceMock).recordDownloadedBytes(CONTENT.length());
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.RANGE, "bytes=0-3,10-11")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isPartialContent());
+
+        // Content of the ranges only, not the part headers.
+        Mockito.verify(serviceMock).recordDownloadedBytes(6);
+
+        Mockito.clearInvocations(serviceMock);
+
+        // Answered without the content.
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.IF_NONE_MATCH, "\"abcd\"")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isNotModified());
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.IF_MATCH, "\"other\"")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isPreconditionFailed());
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.RANGE, "bytes=100-200")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isRequestedRangeNotSatisfiable());
+
+        Mockito.verify(serviceMock, Mockito.never())
+                .recordDownloadedBytes(Mockito.anyLong());
+    }
+
+    @Test
+    public void checkRangeOfCompressedFile() throws Exception {
+        var stored = new ByteArrayOutputStream();
+
+        try (var gzip = new GZIPOutputStream(stored)) {
+            gzip.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+        }
+
+        var fileData = store("SHA-256", stored.toByteArray());
+
+        fileData.setContentEncoding("gzip");
+
+        // Offsets in the stored bytes don't match offsets in the content, the range is ignored.
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.RANGE, "bytes=0-9")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "none"))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, CONTENT.length()))
+                .andExpect(content().string(CONTENT));
+
+        api.perform(
+                        get("/file")
+                                .header("auth-token", TOKEN)
+                                .header(HttpHeaders.RANGE, "bytes=0-9")
+                                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                .param("filename", FILE_NAME)
+                )
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "none"))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().bytes(stored.toByteArray()));
+    }
+
+    private FileData store(String checksumAlgorithm) throws Exception {
+        return store(checksumAlgorithm, CONTENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private FileData store(String checksumAlgorithm, byte[] stored) throws Exception {
+        var path = Files.write(filesDir.resolve("local"), stored);
+
+        var fileData = new FileData(USER, FILE_NAME, "local", "abcd", CONTENT.length());
+
+        fileData.setChecksumAlgorithm(checksumAlgorithm);
+
+        Mockito.when(serviceMock.findFileForDownload(TOKEN, FILE_NAME))
+                .thenReturn(new DownloadableFile(fileData, path, cache));
+
+        return fileData;
+    }
+}
@@ -0,0 +1,80 @@
+package ru.netology.homework_61.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MultipartStreamTest {
+    private static final Path EXAMPLE_FILE_PATH = Path.of(".", "src", "test", "resources", "fish.JPG");
+    private static final String BOUNDARY = "----boundary42";
+
+    @Test
+    public void checkParts() throws Exception {
+        var content = Files.readAllBytes(EXAMPLE_FILE_PATH);
+
+        var body = new ByteArrayOutputStream();
+
+        body.write((
+                "preamble\r\n"
+                        + "--" + BOUNDARY + "\r\n"
+                        + "Content-Disposition: form-data; name=\"hash\"\r\n"
+                        + "\r\n"
+                        + "abc\r\n"
+                        + "--" + BOUNDARY + "\r\n"
+                        + "Content-Disposition: form-data; name=\"file\"; filename=\"fish.JPG\"\r\n"
+                        + "Content-Type: image/jpeg\r\n"
+                        + "\r\n"
+        ).getBytes(StandardCharsets.US_ASCII));
+        body.write(content);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+        // Small reads make delimiters span buffer refills.
+        var multipart = new MultipartStream(new SlowInputStream(new ByteArrayInputStream(body.toByteArray())), BOUNDARY);
+
+        var hashPart = multipart.nextPart();
+
+        Assertions.assertEquals("hash", hashPart.getName());
+        Assertions.assertEquals("abc", new String(hashPart.getBody().readAllBytes(), StandardCharsets.US_ASCII));
+
+        var filePart = multipart.nextPart();
+
+        Assertions.assertEquals("file", filePart.getName());
+        Assertions.assertArrayEquals(content, filePart.getBody().readAllBytes());
+
+        Assertions.assertNull(multipart.nextPart());
+    }
+
+    @Test
+    public void checkTruncatedBody() {
+        var body = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"\r\n"
+                + "\r\n"
+                + "unfinished content").getBytes(StandardCharsets.US_ASCII);
+
+        var multipart = new MultipartStream(new ByteArrayInputStream(body), BOUNDARY);
+
+        Assertions.assertThrows(
+                IOException.class,
+                () -> multipart.nextPart().getBody().readAllBytes()
+        );
+    }
+
+    private static class SlowInputStream extends FilterInputStream {
+        SlowInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 7));
+        }
+    }
+}